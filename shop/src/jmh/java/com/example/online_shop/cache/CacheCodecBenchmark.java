@@ -0,0 +1,75 @@
+package com.example.online_shop.cache;
+
+import com.example.online_shop.model.dto.ItemDto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Размер и скорость (де)сериализации страницы каталога (20 товаров, описание до 300 символов):
+ * прежний Jackson2JsonRedisSerializer против двоичного кодека с LZ4 и без.
+ * Размеры печатаются при старте каждого варианта.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CacheCodecBenchmark {
+    @Param({"jackson", "binary", "binary-lz4"})
+    public String codec;
+
+    private RedisSerializer<List<ItemDto>> serializer;
+    private List<ItemDto> page;
+    private byte[] pageBytes;
+
+    @Setup
+    public void setUp() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        serializer = switch (codec) {
+            case "jackson" -> new Jackson2JsonRedisSerializer<>(objectMapper.getTypeFactory()
+                    .constructCollectionType(List.class, ItemDto.class));
+            case "binary" -> new CacheCodecRedisSerializer<>(ItemDtoBinaryCodec.INSTANCE.listOf());
+            case "binary-lz4" -> new CacheCodecRedisSerializer<>(
+                    new Lz4CacheCodec<>(ItemDtoBinaryCodec.INSTANCE.listOf(), 512));
+            default -> throw new IllegalArgumentException(codec);
+        };
+        Random random = new Random(42);
+        page = IntStream.rangeClosed(1, 20)
+                .mapToObj(id -> ItemDto.builder()
+                        .id((long) id)
+                        .title("Товар " + id)
+                        .description(description(random))
+                        .imageHash(Long.toHexString(random.nextLong()).repeat(4))
+                        .imagePath("http://localhost:8084/items/image/" + id)
+                        .thumbnailPath("http://localhost:8084/items/image/" + id + "&w=300")
+                        .price(BigDecimal.valueOf(random.nextInt(100_000), 2))
+                        .build())
+                .toList();
+        pageBytes = serializer.serialize(page);
+        System.out.printf("%n%s: page of %d items = %d bytes%n", codec, page.size(), pageBytes.length);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return serializer.serialize(page);
+    }
+
+    @Benchmark
+    public List<ItemDto> deserialize() {
+        return serializer.deserialize(pageBytes);
+    }
+
+    private static String description(Random random) {
+        String[] words = {"удобный", "прочный", "лёгкий", "товар", "для", "дома", "и", "дачи", "гарантия", "год"};
+        StringBuilder description = new StringBuilder();
+        while (description.length() < 300)
+            description.append(words[random.nextInt(words.length)]).append(' ');
+        return description.substring(0, 300);
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.online_shop.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Двоичный кодек без имён полей: порядок полей задаёт write/read, поэтому при изменении формата меняется id().
+ */
+public abstract class BinaryCacheCodec<T> implements CacheCodec<T> {
+    public static final BinaryCacheCodec<Long> LONG = new BinaryCacheCodec<>() {
+        @Override
+        public String id() {
+            return "bin1";
+        }
+
+        @Override
+        public void write(Long value, BinaryWriter writer) {
+            writer.writeVarLong(value);
+        }
+
+        @Override
+        public Long read(BinaryReader reader) {
+            return reader.readVarLong();
+        }
+    };
+
+    public abstract void write(T value, BinaryWriter writer);
+
+    public abstract T read(BinaryReader reader);
+
+    @Override
+    public byte[] encode(T value) {
+        BinaryWriter writer = new BinaryWriter(64);
+        write(value, writer);
+        return writer.toByteArray();
+    }
+
+    @Override
+    public T decode(byte[] bytes) {
+        BinaryReader reader = new BinaryReader(bytes);
+        T value = read(reader);
+        if (reader.hasRemaining())
+            throw new IllegalArgumentException("Trailing bytes in binary cache value");
+        return value;
+    }
+
+    /**
+     * @return кодек списка: число элементов и элементы подряд
+     */
+    public BinaryCacheCodec<List<T>> listOf() {
+        BinaryCacheCodec<T> element = this;
+        return new BinaryCacheCodec<>() {
+            @Override
+            public String id() {
+                return element.id() + "-list";
+            }
+
+            @Override
+            public void write(List<T> values, BinaryWriter writer) {
+                writer.writeUnsignedVarLong(values.size());
+                values.forEach(value -> element.write(value, writer));
+            }
+
+            @Override
+            public List<T> read(BinaryReader reader) {
+                int size = Math.toIntExact(reader.readUnsignedVarLong());
+                List<T> values = new ArrayList<>(Math.min(size, 1024));
+                for (int i = 0; i < size; i++)
+                    values.add(element.read(reader));
+                return values;
+            }
+        };
+    }
+}
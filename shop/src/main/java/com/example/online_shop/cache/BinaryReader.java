@@ -0,0 +1,82 @@
+package com.example.online_shop.cache;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Чтение значений, записанных BinaryWriter.
+ */
+public class BinaryReader {
+    private final byte[] buffer;
+    private int position;
+
+    public BinaryReader(byte[] buffer) {
+        this.buffer = buffer;
+    }
+
+    public int readByte() {
+        if (position >= buffer.length)
+            throw new IllegalArgumentException("Unexpected end of binary cache value");
+        return buffer[position++];
+    }
+
+    public boolean readBoolean() {
+        return readByte() != 0;
+    }
+
+    public long readUnsignedVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    public long readVarLong() {
+        long raw = readUnsignedVarLong();
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    public int readVarInt() {
+        return Math.toIntExact(readVarLong());
+    }
+
+    public Long readNullableLong() {
+        return readBoolean() ? readVarLong() : null;
+    }
+
+    public byte[] readBytes() {
+        int length = Math.toIntExact(readUnsignedVarLong());
+        if (length < 0 || position + length > buffer.length)
+            throw new IllegalArgumentException("Unexpected end of binary cache value");
+        byte[] value = Arrays.copyOfRange(buffer, position, position + length);
+        position += length;
+        return value;
+    }
+
+    public String readString() {
+        return readBoolean() ? new String(readBytes(), StandardCharsets.UTF_8) : null;
+    }
+
+    public BigDecimal readDecimal() {
+        return switch (readByte()) {
+            case 0 -> null;
+            case 1 -> BigDecimal.valueOf(readVarLong(), readVarInt());
+            case 2 -> new BigDecimal(new BigInteger(readBytes()), readVarInt());
+            default -> throw new IllegalArgumentException("Malformed decimal");
+        };
+    }
+
+    public int position() {
+        return position;
+    }
+
+    public boolean hasRemaining() {
+        return position < buffer.length;
+    }
+}
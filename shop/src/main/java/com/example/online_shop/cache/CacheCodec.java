@@ -0,0 +1,35 @@
+package com.example.online_shop.cache;
+
+/**
+ * Преобразование значения кеша в байты для Redis и обратно.
+ */
+public interface CacheCodec<T> {
+    /**
+     * Байты без преобразования (картинки).
+     */
+    CacheCodec<byte[]> RAW = new CacheCodec<>() {
+        @Override
+        public String id() {
+            return "raw";
+        }
+
+        @Override
+        public byte[] encode(byte[] value) {
+            return value;
+        }
+
+        @Override
+        public byte[] decode(byte[] bytes) {
+            return bytes;
+        }
+    };
+
+    /**
+     * Идентификатор формата - входит в ключ Redis, чтобы записи в другом формате не читались этим кодеком.
+     */
+    String id();
+
+    byte[] encode(T value);
+
+    T decode(byte[] bytes);
+}
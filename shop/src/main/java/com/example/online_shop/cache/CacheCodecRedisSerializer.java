@@ -0,0 +1,37 @@
+package com.example.online_shop.cache;
+
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+/**
+ * CacheCodec в виде RedisSerializer - для сравнения с сериализаторами Spring Data Redis (src/jmh).
+ */
+public class CacheCodecRedisSerializer<T> implements RedisSerializer<T> {
+    private final CacheCodec<T> codec;
+
+    public CacheCodecRedisSerializer(CacheCodec<T> codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public byte[] serialize(T value) throws SerializationException {
+        if (value == null)
+            return null;
+        try {
+            return codec.encode(value);
+        } catch (RuntimeException e) {
+            throw new SerializationException("Cannot serialize cache value", e);
+        }
+    }
+
+    @Override
+    public T deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null)
+            return null;
+        try {
+            return codec.decode(bytes);
+        } catch (RuntimeException e) {
+            throw new SerializationException("Cannot deserialize cache value", e);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.online_shop.cache;
+
+/**
+ * Сообщение об инвалидации L1 на других узлах.
+ *
+ * @param key ключ в строковом виде или null - очистить весь кеш
+ */
+public record CacheInvalidation(String cacheName, String key) {
+}
@@ -0,0 +1,67 @@
+package com.example.online_shop.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.ReactiveRedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.UUID;
+
+/**
+ * Рассылка инвалидаций L1 через Redis pub/sub: узел, выполнивший evict/clear, сообщает остальным, какие ключи
+ * выбросить из памяти. Свои сообщения узел отбрасывает по nodeId.
+ * Доставка pub/sub не гарантирована, поэтому время жизни записей в L1 дополнительно ограничено.
+ */
+@Component
+@Slf4j
+public class CacheInvalidationBus implements DisposableBean {
+    private static final String SEPARATOR = "\n";
+    private static final String CLEAR = "C";
+    private static final String EVICT = "E";
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final ReactiveRedisMessageListenerContainer listenerContainer;
+    private final String channel;
+
+    public CacheInvalidationBus(ReactiveStringRedisTemplate redisTemplate,
+                                ReactiveRedisConnectionFactory connectionFactory,
+                                @Value("${shop.cache.invalidation-channel:shop:cache:invalidation}") String channel) {
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = new ReactiveRedisMessageListenerContainer(connectionFactory);
+        this.channel = channel;
+    }
+
+    /**
+     * @param key ключ в строковом виде или null - очистить весь кеш
+     */
+    public void publish(String cacheName, String key) {
+        String message = key == null
+                ? String.join(SEPARATOR, nodeId, cacheName, CLEAR)
+                : String.join(SEPARATOR, nodeId, cacheName, EVICT, key);
+        redisTemplate.convertAndSend(channel, message)
+                .subscribe(receivers -> log.debug("Cache invalidation sent: cache={}, key={}, receivers={}",
+                                cacheName, key, receivers),
+                        e -> log.warn("Cache invalidation not sent: cache={}, key={}: {}", cacheName, key, e.getMessage()));
+    }
+
+    /**
+     * @return инвалидации от других узлов
+     */
+    public Flux<CacheInvalidation> listen() {
+        return listenerContainer.receive(ChannelTopic.of(channel))
+                .map(message -> message.getMessage().split(SEPARATOR, 4))
+                .filter(parts -> parts.length >= 3 && !nodeId.equals(parts[0]))
+                .map(parts -> new CacheInvalidation(parts[1], EVICT.equals(parts[2]) && parts.length == 4 ? parts[3] : null));
+    }
+
+    @Override
+    public void destroy() {
+        listenerContainer.destroy();
+    }
+}
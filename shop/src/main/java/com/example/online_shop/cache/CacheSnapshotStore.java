@@ -0,0 +1,86 @@
+package com.example.online_shop.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+
+/**
+ * Снимок L1 кешей ReactiveCache на диск при остановке и восстановление при следующем старте: узел начинает
+ * работу с тёплым L1 даже при пустом Redis. Файл на кеш: {name}-{codec}.snapshot, поэтому при смене формата
+ * старый снимок просто не читается. Снимок старше max-age не восстанавливается - изменения, пропущенные
+ * остановленным узлом, видны не позже, чем через max-age плюс срок жизни L1.
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(prefix = "shop.cache.snapshot", name = "enabled", havingValue = "true")
+public class CacheSnapshotStore implements DisposableBean {
+    private static final int MAGIC = 0x53484331; // "SHC1"
+
+    private final ReactiveCacheManager cacheManager;
+    private final Path directory;
+    private final Duration maxAge;
+
+    public CacheSnapshotStore(ReactiveCacheManager cacheManager,
+                              @Value("${shop.cache.snapshot.path:cache-snapshot}") Path directory,
+                              @Value("${shop.cache.snapshot.max-age:10m}") Duration maxAge) {
+        this.cacheManager = cacheManager;
+        this.directory = directory;
+        this.maxAge = maxAge;
+    }
+
+    public void restore() {
+        for (ReactiveCache<?> cache : cacheManager.getCaches()) {
+            Path file = file(cache);
+            if (!cache.hasLocalCache() || !Files.exists(file))
+                continue;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                long createdAt;
+                if (in.readInt() != MAGIC || (createdAt = in.readLong()) < System.currentTimeMillis() - maxAge.toMillis()) {
+                    log.info("Cache snapshot skipped (stale or unknown): {}", file);
+                    continue;
+                }
+                log.info("Cache snapshot restored: cache={}, entries={}", cache.getName(), cache.readSnapshot(in));
+            } catch (IOException | RuntimeException e) {
+                log.warn("Cannot restore cache snapshot {}: {}", file, e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        for (ReactiveCache<?> cache : cacheManager.getCaches()) {
+            if (!cache.hasLocalCache())
+                continue;
+            Path file = file(cache);
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try {
+                Files.createDirectories(directory);
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                    out.writeInt(MAGIC);
+                    out.writeLong(System.currentTimeMillis());
+                    cache.writeSnapshot(out);
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                log.info("Cache snapshot saved: cache={}", cache.getName());
+            } catch (IOException | RuntimeException e) {
+                log.warn("Cannot save cache snapshot {}: {}", file, e.getMessage());
+            }
+        }
+    }
+
+    private Path file(ReactiveCache<?> cache) {
+        return directory.resolve(cache.getName() + "-" + cache.codecId() + ".snapshot");
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.online_shop.cache;
+
+import com.example.online_shop.model.dto.ItemDto;
+import com.example.online_shop.model.entity.ItemInCart;
+import io.r2dbc.postgresql.api.Notification;
+import io.r2dbc.postgresql.api.PostgresqlConnection;
+import io.r2dbc.postgresql.api.PostgresqlResult;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcProperties;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Инвалидация кешей по NOTIFY из триггеров на items и items_in_cart (changelog-006, changelog-012): кеш остаётся
+ * верным и при изменениях в обход приложения, поэтому TTL товаров может быть долгим.
+ * <p>
+ * Слушает отдельное соединение вне пула. Уведомления приходят на каждый узел, поэтому каждый узел сам чистит
+ * свой L1, а общий Redis чистится один раз на изменение: payload - "номер события:id", и ключ в Redis удаляет узел,
+ * первым занявший номер. Страницы каталога не удаляются вовсе: номер события товара - поколение ключей itemsCache.
+ * <p>
+ * Пока соединения нет, уведомления теряются - если за это время номер событий товаров вырос, после
+ * переподключения кеши товаров очищаются целиком.
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(prefix = "shop.cache.db-notifications", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class DatabaseChangeListener implements InitializingBean, DisposableBean {
+    static final String ITEMS_CHANNEL = "items_changed";
+    static final String CART_CHANNEL = "items_in_cart_changed";
+    static final String ITEMS_SEQUENCE = "items_changed_seq";
+
+    private final ConnectionFactory connectionFactory;
+    private final ReactiveCache<List<ItemDto>> itemsCache;
+    private final ReactiveCache<ItemDto> itemCache;
+    private final ReactiveCache<List<ItemInCart>> itemsInCartCache;
+    private final ReactiveCache<byte[]> pictureCache;
+    private final ItemIdFilter itemIdFilter;
+    private Disposable subscription;
+
+    public DatabaseChangeListener(R2dbcProperties properties,
+                                  ReactiveCache<List<ItemDto>> itemsCache,
+                                  ReactiveCache<ItemDto> itemCache,
+                                  ReactiveCache<List<ItemInCart>> itemsInCartCache,
+                                  ReactiveCache<byte[]> pictureCache,
+                                  ItemIdFilter itemIdFilter) {
+        ConnectionFactoryOptions.Builder options = ConnectionFactoryOptions.parse(properties.getUrl()).mutate();
+        if (properties.getUsername() != null)
+            options.option(ConnectionFactoryOptions.USER, properties.getUsername());
+        if (properties.getPassword() != null)
+            options.option(ConnectionFactoryOptions.PASSWORD, properties.getPassword());
+        this.connectionFactory = ConnectionFactories.get(options.build());
+        this.itemsCache = itemsCache;
+        this.itemCache = itemCache;
+        this.itemsInCartCache = itemsInCartCache;
+        this.pictureCache = pictureCache;
+        this.itemIdFilter = itemIdFilter;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        subscription = Flux.usingWhen(connectionFactory.create(),
+                        connection -> listen((PostgresqlConnection) connection),
+                        Connection::close)
+                .doFinally(signal -> itemIdFilter.pause())
+                .bufferTimeout(100, Duration.ofMillis(100))
+                .concatMap(this::invalidate)
+                .doOnError(e -> log.warn("Database notifications listener failed: {}", e.getMessage()))
+                .repeatWhen(completed -> completed.delayElements(Duration.ofSeconds(1)))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1)).maxBackoff(Duration.ofSeconds(30)))
+                .subscribe();
+    }
+
+    @Override
+    public void destroy() {
+        if (subscription != null)
+            subscription.dispose();
+    }
+
+    private Flux<Notification> listen(PostgresqlConnection connection) {
+        return connection.createStatement("LISTEN " + ITEMS_CHANNEL).execute()
+                .flatMap(PostgresqlResult::getRowsUpdated)
+                .thenMany(connection.createStatement("LISTEN " + CART_CHANNEL).execute())
+                .flatMap(PostgresqlResult::getRowsUpdated)
+                .thenMany(connection.createStatement(
+                        "select case when is_called then last_value else 0 end from " + ITEMS_SEQUENCE).execute())
+                .flatMap(result -> result.map((row, metadata) -> row.get(0, Long.class)))
+                .concatMap(this::onConnected)
+                .thenMany(connection.getNotifications());
+    }
+
+    /**
+     * При первом подключении выбирается текущее поколение страниц каталога. При переподключении номер событий
+     * товаров вырос - значит, уведомления об изменениях потеряны: L1 товаров очищается на этом узле, а Redis -
+     * один раз на номер, сколько бы узлов ни переподключилось. Фильтр id товаров снова отсекает id только
+     * теперь, когда LISTEN уже выполнен, - после перестройки, если она нужна.
+     */
+    private Mono<Void> onConnected(long itemsEvent) {
+        log.info("Listening database notifications: {}, {}, event={}", ITEMS_CHANNEL, CART_CHANNEL, itemsEvent);
+        boolean missedChanges = itemsCache.advanceGeneration(itemsEvent);
+        String event = "reconnect:" + itemsEvent;
+        return (missedChanges
+                ? itemCache.invalidateAllOnce(event).then(pictureCache.invalidateAllOnce(event))
+                : Mono.<Void>empty())
+                .then(Mono.fromRunnable(() -> itemIdFilter.resume(missedChanges).subscribe()));
+    }
+
+    /**
+     * Изменённые товары удаляются по ключу, а страницы каталога переходят на новое поколение: по id не определить,
+     * на каких страницах товар был и на какие попадёт. Id добавляются в фильтр существующих товаров: среди них
+     * могут быть новые.
+     */
+    private Mono<Void> invalidate(List<Notification> notifications) {
+        Map<String, String> items = events(notifications, ITEMS_CHANNEL);
+        Map<String, String> carts = events(notifications, CART_CHANNEL);
+        log.debug("Database changes: items={}, carts={}", items, carts);
+        items.values().forEach(id -> itemIdFilter.add(Long.valueOf(id)));
+        items.keySet().stream().mapToLong(Long::parseLong).max().ifPresent(itemsCache::advanceGeneration);
+        return Mono.when(itemCache.invalidateOnce(items).then(pictureCache.invalidateOnce(items)),
+                        itemsInCartCache.invalidateOnce(carts))
+                .onErrorResume(e -> {
+                    log.warn("Cache invalidation failed: items={}, carts={}: {}", items, carts, e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    /**
+     * @return id по номеру события
+     */
+    private static Map<String, String> events(List<Notification> notifications, String channel) {
+        Map<String, String> events = new LinkedHashMap<>();
+        for (Notification notification : notifications) {
+            if (!channel.equals(notification.getName()) || notification.getParameter() == null)
+                continue;
+            String[] event = notification.getParameter().split(":", 2);
+            if (event.length == 2)
+                events.put(event[0], event[1]);
+            else
+                log.warn("Unexpected notification: channel={}, payload={}", channel, notification.getParameter());
+        }
+        return events;
+    }
+}
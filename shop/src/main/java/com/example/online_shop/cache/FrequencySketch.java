@@ -0,0 +1,62 @@
+package com.example.online_shop.cache;
+
+/**
+ * Приблизительная частота ключей (count-min sketch, как в TinyLFU): 4 ряда счётчиков до 15.
+ * Ошибка только в большую сторону - из-за коллизий. Когда число увеличений достигает 10 * ширины,
+ * все счётчики делятся пополам, поэтому старая популярность постепенно забывается.
+ */
+public class FrequencySketch {
+    private static final int MAX_COUNT = 15;
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    private final byte[][] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * @param expectedKeys ожидаемое число различных ключей, по нему выбирается ширина рядов
+     */
+    public FrequencySketch(long expectedKeys) {
+        int keys = (int) Math.min(Math.max(expectedKeys, 16), 1 << 24);
+        int width = Integer.highestOneBit(keys - 1) << 1;
+        this.table = new byte[SEEDS.length][width];
+        this.mask = width - 1;
+        this.sampleSize = 10 * width;
+    }
+
+    public synchronized int frequency(String key) {
+        int hash = key.hashCode();
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < table.length; row++)
+            frequency = Math.min(frequency, table[row][index(hash, row)]);
+        return frequency;
+    }
+
+    public synchronized void increment(String key) {
+        int hash = key.hashCode();
+        boolean added = false;
+        for (int row = 0; row < table.length; row++) {
+            int index = index(hash, row);
+            if (table[row][index] < MAX_COUNT) {
+                table[row][index]++;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize)
+            reset();
+    }
+
+    private void reset() {
+        for (byte[] row : table)
+            for (int i = 0; i < row.length; i++)
+                row[i] >>>= 1;
+        additions /= 2;
+    }
+
+    private int index(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return (int) h & mask;
+    }
+}
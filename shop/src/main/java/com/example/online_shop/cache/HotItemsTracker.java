@@ -0,0 +1,93 @@
+package com.example.online_shop.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Популярность товаров для прогрева кеша: просмотры копятся в памяти узла и раз в flush-interval
+ * добавляются в общий ZSET Redis, поэтому на просмотр не приходится отдельный запрос к Redis.
+ * После каждой записи в ZSET остаются max-size самых просматриваемых товаров.
+ */
+@Component
+@Slf4j
+public class HotItemsTracker implements InitializingBean, DisposableBean {
+    static final String KEY = "cache:item:hits";
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final Duration flushInterval;
+    private final Duration retention;
+    private final long maxSize;
+    private final ConcurrentMap<Long, Long> hits = new ConcurrentHashMap<>();
+    private Disposable flushing;
+
+    public HotItemsTracker(ReactiveStringRedisTemplate redisTemplate,
+                           @Value("${shop.cache.hot-items.flush-interval:10s}") Duration flushInterval,
+                           @Value("${shop.cache.hot-items.retention:7d}") Duration retention,
+                           @Value("${shop.cache.hot-items.max-size:1000}") long maxSize) {
+        this.redisTemplate = redisTemplate;
+        this.flushInterval = flushInterval;
+        this.retention = retention;
+        this.maxSize = maxSize;
+    }
+
+    // merge и remove атомарны для ключа: просмотр попадает либо в забранное значение, либо в новое
+    public void record(Long itemId) {
+        hits.merge(itemId, 1L, Long::sum);
+    }
+
+    /**
+     * @return id самых просматриваемых товаров, по убыванию просмотров
+     */
+    public Flux<Long> top(int count) {
+        return redisTemplate.opsForZSet().reverseRange(KEY, Range.closed(0L, count - 1L))
+                .map(Long::valueOf);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        flushing = Flux.interval(flushInterval)
+                .onBackpressureDrop()
+                .concatMap(tick -> flush())
+                .subscribe();
+    }
+
+    @Override
+    public void destroy() {
+        flushing.dispose();
+        flush().block(Duration.ofSeconds(5));
+    }
+
+    Mono<Void> flush() {
+        Map<Long, Long> batch = new HashMap<>();
+        hits.keySet().forEach(id -> {
+            Long count = hits.remove(id);
+            if (count != null)
+                batch.put(id, count);
+        });
+        if (batch.isEmpty())
+            return Mono.empty();
+        return Flux.fromIterable(batch.entrySet())
+                .concatMap(hit -> redisTemplate.opsForZSet().incrementScore(KEY, String.valueOf(hit.getKey()), hit.getValue()))
+                .then(redisTemplate.opsForZSet().removeRange(KEY, Range.closed(0L, -maxSize - 1)))
+                .then(redisTemplate.expire(KEY, retention))
+                .then()
+                .onErrorResume(e -> {
+                    log.warn("Cannot flush item hits: {}", e.getMessage());
+                    return Mono.empty();
+                });
+    }
+}
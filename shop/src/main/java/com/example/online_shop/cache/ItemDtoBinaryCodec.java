@@ -0,0 +1,38 @@
+package com.example.online_shop.cache;
+
+import com.example.online_shop.model.dto.ItemDto;
+
+public class ItemDtoBinaryCodec extends BinaryCacheCodec<ItemDto> {
+    public static final ItemDtoBinaryCodec INSTANCE = new ItemDtoBinaryCodec();
+
+    @Override
+    public String id() {
+        return "item1";
+    }
+
+    @Override
+    public void write(ItemDto item, BinaryWriter writer) {
+        writer.writeNullableLong(item.getId());
+        writer.writeString(item.getTitle());
+        writer.writeString(item.getDescription());
+        writer.writeString(item.getImagePath());
+        writer.writeString(item.getThumbnailPath());
+        writer.writeString(item.getImageHash());
+        writer.writeVarInt(item.getCount());
+        writer.writeDecimal(item.getPrice());
+    }
+
+    @Override
+    public ItemDto read(BinaryReader reader) {
+        return ItemDto.builder()
+                .id(reader.readNullableLong())
+                .title(reader.readString())
+                .description(reader.readString())
+                .imagePath(reader.readString())
+                .thumbnailPath(reader.readString())
+                .imageHash(reader.readString())
+                .count(reader.readVarInt())
+                .price(reader.readDecimal())
+                .build();
+    }
+}
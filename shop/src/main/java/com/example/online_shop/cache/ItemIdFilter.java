@@ -0,0 +1,147 @@
+package com.example.online_shop.cache;
+
+import com.example.online_shop.repository.ItemRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Фильтр Блума по id существующих товаров: запросы несуществующих id (перебор id ботом) отсекаются без
+ * обращения к кешу и БД. Строится из items, когда DatabaseChangeListener начал слушать NOTIFY, и дополняется
+ * при сохранении товара и по NOTIFY. Удалённые id остаются в фильтре до следующей перестройки - их отсекает
+ * отрицательный кеш.
+ * <p>
+ * Без уведомлений фильтр не знает о товарах, созданных на других узлах, поэтому пока он не построен или
+ * слушатель не подключён, пропускаются все id. Id больше известных тоже пропускаются: NOTIFY о товаре,
+ * только что созданном на другом узле, может ещё не дойти - такие id проверяет отрицательный кеш.
+ * <p>
+ * Если уведомления выключены (shop.cache.db-notifications.enabled=false), слушателя нет: фильтр строится
+ * при запуске и сразу включается. Товары других узлов тогда пропускаются только как id больше известных.
+ */
+@Component
+@Slf4j
+public class ItemIdFilter implements InitializingBean, DisposableBean {
+    private final ItemRepository itemRepository;
+    private final boolean enabled;
+    private final boolean notifications;
+    private final long minExpectedItems;
+    private final double fpp;
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private final AtomicLong maxId = new AtomicLong();
+    private final AtomicInteger pauses = new AtomicInteger();
+    private volatile boolean paused = true;
+    private volatile BloomFilter filter; // null - ещё не построен
+    private volatile BloomFilter building; // id, добавленные во время перестройки, пишутся и сюда
+    private Disposable initialBuild;
+
+    public ItemIdFilter(ItemRepository itemRepository,
+                        @Value("${shop.items.id-filter.enabled:true}") boolean enabled,
+                        @Value("${shop.items.id-filter.min-expected-items:100000}") long minExpectedItems,
+                        @Value("${shop.items.id-filter.fpp:0.01}") double fpp,
+                        @Value("${shop.cache.db-notifications.enabled:true}") boolean notifications) {
+        this.itemRepository = itemRepository;
+        this.enabled = enabled;
+        this.notifications = notifications;
+        this.minExpectedItems = minExpectedItems;
+        this.fpp = fpp;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!notifications) // иначе фильтр включит DatabaseChangeListener после LISTEN
+            initialBuild = resume(false).subscribe();
+    }
+
+    @Override
+    public void destroy() {
+        if (initialBuild != null)
+            initialBuild.dispose();
+    }
+
+    /**
+     * @return false - товара с таким id точно нет
+     */
+    public boolean mightExist(Long id) {
+        BloomFilter current = filter;
+        return id == null || paused || current == null || id > maxId.get() || current.mightContain(id);
+    }
+
+    /**
+     * Уведомления больше не приходят: до resume пропускаются все id.
+     */
+    public void pause() {
+        pauses.incrementAndGet();
+        paused = true;
+    }
+
+    /**
+     * Уведомления снова приходят. Фильтр перестраивается, если он ещё не построен или изменения могли быть
+     * пропущены; до конца перестройки пропускаются все id.
+     */
+    public Mono<Void> resume(boolean missedChanges) {
+        if (!enabled)
+            return Mono.empty();
+        int token = pauses.get();
+        return (filter == null || missedChanges ? rebuild() : Mono.<Void>empty())
+                .then(Mono.fromRunnable(() -> {
+                    if (pauses.get() == token) // иначе соединение снова потеряно
+                        paused = false;
+                }));
+    }
+
+    public void add(Long id) {
+        if (id == null)
+            return;
+        maxId.accumulateAndGet(id, Math::max);
+        BloomFilter current = filter;
+        BloomFilter next = building;
+        if (next != null)
+            next.put(id);
+        if (current != null) {
+            current.put(id);
+            if (current.isOverloaded())
+                rebuild().subscribe();
+        }
+    }
+
+    /**
+     * Строит фильтр заново с запасом в два раза от текущего числа товаров.
+     */
+    public Mono<Void> rebuild() {
+        if (!rebuilding.compareAndSet(false, true))
+            return Mono.empty();
+        return itemRepository.estimateCount()
+                .defaultIfEmpty(0L)
+                .flatMap(count -> {
+                    BloomFilter next = new BloomFilter(Math.max(count * 2, minExpectedItems), fpp);
+                    building = next;
+                    return itemRepository.findAllIds()
+                            .doOnNext(id -> {
+                                next.put(id);
+                                maxId.accumulateAndGet(id, Math::max);
+                            })
+                            .count()
+                            .doOnNext(loaded -> {
+                                filter = next;
+                                log.info("Item id filter built: items={}", loaded);
+                            });
+                })
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1)).maxBackoff(Duration.ofSeconds(30))
+                        .doBeforeRetry(signal -> log.warn("Cannot build item id filter: {}", signal.failure().getMessage())))
+                .doFinally(signal -> {
+                    building = null;
+                    rebuilding.set(false);
+                })
+                .then();
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.online_shop.cache;
+
+import com.example.online_shop.model.entity.ItemInCart;
+
+/**
+ * Строка корзины без полей каталога - они подставляются при чтении (ItemInCacheService.withCatalogFields).
+ */
+public class ItemInCartBinaryCodec extends BinaryCacheCodec<ItemInCart> {
+    public static final ItemInCartBinaryCodec INSTANCE = new ItemInCartBinaryCodec();
+
+    @Override
+    public String id() {
+        return "cart2";
+    }
+
+    @Override
+    public void write(ItemInCart item, BinaryWriter writer) {
+        writer.writeNullableLong(item.getId());
+        writer.writeVarInt(item.getCount());
+        writer.writeString(item.getLogin());
+        writer.writeNullableLong(item.getItemId());
+    }
+
+    @Override
+    public ItemInCart read(BinaryReader reader) {
+        return ItemInCart.builder()
+                .id(reader.readNullableLong())
+                .count(reader.readVarInt())
+                .login(reader.readString())
+                .itemId(reader.readNullableLong())
+                .build();
+    }
+}
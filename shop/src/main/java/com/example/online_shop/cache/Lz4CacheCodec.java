@@ -0,0 +1,68 @@
+package com.example.online_shop.cache;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import java.util.Arrays;
+
+/**
+ * Сжатие LZ4 поверх другого кодека для значений не меньше threshold байт.
+ * Формат: байт 0 + значение как есть или байт 1 + исходная длина (varint) + сжатое значение.
+ */
+public class Lz4CacheCodec<T> implements CacheCodec<T> {
+    private static final int RAW = 0;
+    private static final int COMPRESSED = 1;
+    private static final LZ4Compressor COMPRESSOR = LZ4Factory.fastestInstance().fastCompressor();
+    private static final LZ4FastDecompressor DECOMPRESSOR = LZ4Factory.fastestInstance().fastDecompressor();
+
+    private final CacheCodec<T> codec;
+    private final int threshold;
+
+    public Lz4CacheCodec(CacheCodec<T> codec, int threshold) {
+        this.codec = codec;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public String id() {
+        return codec.id() + "-lz4";
+    }
+
+    @Override
+    public byte[] encode(T value) {
+        byte[] raw = codec.encode(value);
+        if (raw.length >= threshold) {
+            byte[] compressed = new byte[COMPRESSOR.maxCompressedLength(raw.length)];
+            int length = COMPRESSOR.compress(raw, 0, raw.length, compressed, 0, compressed.length);
+            if (length < raw.length) { // несжимаемые данные остаются как есть
+                BinaryWriter writer = new BinaryWriter(length + 6);
+                writer.writeByte(COMPRESSED);
+                writer.writeUnsignedVarLong(raw.length);
+                byte[] header = writer.toByteArray();
+                byte[] result = new byte[header.length + length];
+                System.arraycopy(header, 0, result, 0, header.length);
+                System.arraycopy(compressed, 0, result, header.length, length);
+                return result;
+            }
+        }
+        byte[] result = new byte[raw.length + 1];
+        result[0] = RAW;
+        System.arraycopy(raw, 0, result, 1, raw.length);
+        return result;
+    }
+
+    @Override
+    public T decode(byte[] bytes) {
+        BinaryReader reader = new BinaryReader(bytes);
+        int format = reader.readByte();
+        if (format == RAW)
+            return codec.decode(Arrays.copyOfRange(bytes, 1, bytes.length));
+        if (format != COMPRESSED)
+            throw new IllegalArgumentException("Unknown cache value format: " + format);
+        int length = Math.toIntExact(reader.readUnsignedVarLong());
+        byte[] raw = new byte[length];
+        DECOMPRESSOR.decompress(bytes, reader.position(), raw, 0, length);
+        return codec.decode(raw);
+    }
+}
@@ -0,0 +1,458 @@
+package com.example.online_shop.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.script.RedisScript;
+import reactor.core.publisher.Mono;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Неблокирующий кеш на ReactiveRedisTemplate с необязательным L1 в памяти узла.
+ * <p>
+ * Одновременные промахи по одному ключу на узле выполняют загрузку один раз: остальные подписываются на тот же Mono.
+ * Кроме того, запись обновляется заранее с вероятностью, растущей к концу TTL (XFetch): delta - время последней
+ * загрузки, beta - агрессивность. Поэтому истечение TTL популярного ключа не даёт всплеска запросов к БД.
+ * <p>
+ * В Redis хранится: [срок жизни, epoch ms][delta, ms][значение в формате codec].
+ * <p>
+ * Необязательные ограничения: admission - значение после загрузки пишется, только если ключ запрашивался
+ * на узле больше admissionThreshold раз (редкие запросы не вытесняют популярные); maxBytes - записи
+ * учитываются в ZSET по времени записи вместе с размером значения, и пока сумма размеров больше лимита,
+ * удаляются самые старые; negativeTtl - пустой результат
+ * загрузки запоминается как отметка "значения нет" (delta = -1, без значения) на короткий срок.
+ * <p>
+ * Поколение (generation) входит в ключ Redis: после его смены записи прежнего поколения не читаются и истекают
+ * по TTL, поэтому сброс всего кеша на всех узлах обходится без SCAN+DEL.
+ */
+@Slf4j
+public class ReactiveCache<T> {
+    private static final int HEADER_SIZE = 2 * Long.BYTES;
+    private static final long NEGATIVE = -1; // delta отметки "значения нет"
+    private static final long SKETCH_KEYS = 10_000;
+
+    // KEYS[1] - индекс записей (ZSET по времени записи), KEYS[2] - размеры записей и их сумма "total" (HASH),
+    // KEYS[3] - запись; ARGV: значение, ttl ms, сейчас ms, лимит байт. Возвращает число вытесненных записей.
+    // Запись, удалённая инвалидацией, учитывается до истечения ttl - лимит при этом только строже
+    private static final RedisScript<Long> BOUNDED_SET_SCRIPT = RedisScript.of("""
+            local function forget(key)
+                local size = tonumber(redis.call('HGET', KEYS[2], key) or '0')
+                redis.call('HDEL', KEYS[2], key)
+                redis.call('ZREM', KEYS[1], key)
+                return redis.call('HINCRBY', KEYS[2], 'total', -size)
+            end
+            for _, expired in ipairs(redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', tonumber(ARGV[3]) - tonumber(ARGV[2]))) do
+                forget(expired)
+            end
+            forget(KEYS[3])
+            redis.call('SET', KEYS[3], ARGV[1], 'PX', ARGV[2])
+            redis.call('ZADD', KEYS[1], ARGV[3], KEYS[3])
+            redis.call('HSET', KEYS[2], KEYS[3], #ARGV[1])
+            local total = redis.call('HINCRBY', KEYS[2], 'total', #ARGV[1])
+            redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            redis.call('PEXPIRE', KEYS[2], ARGV[2])
+            local evicted = 0
+            while total > tonumber(ARGV[4]) do
+                local oldest = redis.call('ZRANGE', KEYS[1], 0, 0)[1]
+                if oldest == KEYS[3] then break end -- запись больше лимита остаётся одна
+                redis.call('DEL', oldest)
+                total = forget(oldest)
+                evicted = evicted + 1
+            end
+            return evicted
+            """, Long.class);
+    // KEYS - пары: отметка события, запись; ARGV[1] - срок отметки, ms. Запись удаляет тот, кто занял отметку
+    private static final RedisScript<Long> CLAIMED_DELETE_SCRIPT = RedisScript.of("""
+            local deleted = 0
+            for i = 1, #KEYS, 2 do
+                if redis.call('SET', KEYS[i], '1', 'NX', 'PX', ARGV[1]) then
+                    deleted = deleted + redis.call('DEL', KEYS[i + 1])
+                end
+            end
+            return deleted
+            """, Long.class);
+    private static final Duration EVENT_TTL = Duration.ofMinutes(10);
+
+    private final String name;
+    private final ReactiveRedisTemplate<String, byte[]> redisTemplate;
+    private final CacheCodec<T> codec;
+    private final Duration ttl;
+    private final double beta;
+    private final Cache<String, Entry<T>> localCache; // null - без L1
+    private final CacheInvalidationBus invalidationBus;
+    private final FrequencySketch admission; // null - пишется всё
+    private final int admissionThreshold;
+    private final long maxBytes; // 0 - без ограничения
+    private final Duration negativeTtl; // null - пустой результат не кешируется
+    private final ConcurrentMap<String, Mono<T>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong(-1); // -1 - ключи без поколения
+    private final Counter localHits;
+    private final Counter localMisses;
+    private final Counter redisHits;
+    private final Counter misses;
+    private final Counter earlyRefreshes;
+    private final Counter rejections;
+    private final Counter evictions;
+
+    public ReactiveCache(String name, ReactiveRedisTemplate<String, byte[]> redisTemplate, CacheCodec<T> codec,
+                         Duration ttl, double beta, Cache<String, Entry<T>> localCache,
+                         CacheInvalidationBus invalidationBus, MeterRegistry meterRegistry) {
+        this(name, redisTemplate, codec, ttl, beta, localCache, invalidationBus, meterRegistry, Limits.NONE);
+    }
+
+    public ReactiveCache(String name, ReactiveRedisTemplate<String, byte[]> redisTemplate, CacheCodec<T> codec,
+                         Duration ttl, double beta, Cache<String, Entry<T>> localCache,
+                         CacheInvalidationBus invalidationBus, MeterRegistry meterRegistry, Limits limits) {
+        this.name = name;
+        this.redisTemplate = redisTemplate;
+        this.codec = codec;
+        this.ttl = ttl;
+        this.beta = beta;
+        this.localCache = localCache;
+        this.invalidationBus = invalidationBus;
+        this.admission = limits.admissionThreshold() >= 0
+                ? new FrequencySketch(SKETCH_KEYS)
+                : null;
+        this.admissionThreshold = limits.admissionThreshold();
+        this.maxBytes = limits.maxBytes();
+        this.negativeTtl = limits.negativeTtl();
+        this.localHits = counter(meterRegistry, "l1", "hit");
+        this.localMisses = counter(meterRegistry, "l1", "miss");
+        this.redisHits = counter(meterRegistry, "l2", "hit");
+        this.misses = counter(meterRegistry, "l2", "miss");
+        this.earlyRefreshes = Counter.builder("cache.early.refreshes").tag("cache", name).register(meterRegistry);
+        this.rejections = Counter.builder("cache.admission.rejections").tag("cache", name).register(meterRegistry);
+        this.evictions = Counter.builder("cache.size.evictions").tag("cache", name).register(meterRegistry);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param loader загрузка значения при промахе; пустой результат кешируется только при заданном negativeTtl
+     */
+    public Mono<T> get(String key, Supplier<Mono<T>> loader) {
+        return Mono.defer(() -> {
+            if (admission != null)
+                admission.increment(key);
+            Entry<T> local = localCache == null ? null : localCache.getIfPresent(key);
+            if (local != null && !(local.isNegative() && local.expireAt() < System.currentTimeMillis())) {
+                localHits.increment();
+                return local.isNegative() ? Mono.empty() : Mono.just(refreshIfExpiring(key, local, loader));
+            }
+            if (localCache != null)
+                localMisses.increment();
+            return getFromRedis(key, loader, false);
+        });
+    }
+
+    /**
+     * Прогрев: значение из Redis переносится в L1, а отсутствующее загружается и пишется в обход фильтра частоты.
+     */
+    public Mono<T> preload(String key, Supplier<Mono<T>> loader) {
+        return Mono.defer(() -> getFromRedis(key, loader, true));
+    }
+
+    private Mono<T> getFromRedis(String key, Supplier<Mono<T>> loader, boolean admitted) {
+        return redisTemplate.opsForValue().get(redisKey(key))
+                .mapNotNull(bytes -> decode(key, bytes))
+                .doOnNext(entry -> {
+                    redisHits.increment();
+                    if (localCache != null)
+                        localCache.put(key, entry);
+                })
+                .map(entry -> entry.isNegative()
+                        ? Optional.<T>empty()
+                        : Optional.of(refreshIfExpiring(key, entry, loader)))
+                .onErrorResume(e -> { // Redis недоступен - идём в источник
+                    log.warn("Cache read failed: cache={}, key={}: {}", name, key, e.getMessage());
+                    return Mono.empty();
+                })
+                .switchIfEmpty(Mono.defer(() -> {
+                    misses.increment();
+                    return load(key, loader, admitted).map(Optional::of);
+                }))
+                .flatMap(Mono::justOrEmpty);
+    }
+
+    /**
+     * L1 очищается после удаления из Redis и только при подписке: иначе чтение между очисткой L1 и записью в БД
+     * вернуло бы в L1 старое значение из Redis, а своё сообщение об инвалидации узел не получает.
+     */
+    public Mono<Void> evict(String key) {
+        return redisTemplate.delete(redisKey(key))
+                .then(Mono.fromRunnable(() -> {
+                    evictLocal(key);
+                    invalidationBus.publish(name, key);
+                }));
+    }
+
+    public Mono<Void> clear() {
+        return invalidateAll()
+                .then(Mono.fromRunnable(() -> invalidationBus.publish(name, null)));
+    }
+
+    /**
+     * Удаление без рассылки другим узлам - для событий, которые получает каждый узел (NOTIFY из БД): ключ в Redis удаляет только узел, первым занявший
+     * отметку события, а L1 очищается на каждом.
+     *
+     * @param keysByEvent ключ кеша по id события
+     */
+    public Mono<Void> invalidateOnce(Map<String, String> keysByEvent) {
+        if (keysByEvent.isEmpty())
+            return Mono.empty();
+        List<String> keys = new ArrayList<>(keysByEvent.size() * 2);
+        keysByEvent.forEach((event, key) -> {
+            keys.add(eventKey(event));
+            keys.add(redisKey(key));
+        });
+        return redisTemplate.execute(CLAIMED_DELETE_SCRIPT, keys, List.of(ascii(EVENT_TTL.toMillis())))
+                .then(Mono.fromRunnable(() -> {
+                    if (localCache != null)
+                        localCache.invalidateAll(keysByEvent.values());
+                }));
+    }
+
+    /**
+     * Сброс всего кеша по событию, которое получает каждый узел: SCAN+DEL выполняет один узел, L1 чистят все.
+     */
+    public Mono<Void> invalidateAllOnce(String event) {
+        return redisTemplate.opsForValue().setIfAbsent(eventKey(event), new byte[0], EVENT_TTL)
+                .flatMap(claimed -> claimed ? invalidateAll() : Mono.<Void>fromRunnable(this::clearLocal));
+    }
+
+    /**
+     * Переход на более новое поколение ключей; L1 при этом очищается. Первое поколение после запуска L1 не
+     * очищает: оно только выбирает ключи, которыми уже пользуются другие узлы.
+     *
+     * @return true - поколение сменилось
+     */
+    public boolean advanceGeneration(long next) {
+        long previous = generation.getAndAccumulate(next, Math::max);
+        if (previous < 0 || next <= previous)
+            return false;
+        clearLocal();
+        return true;
+    }
+
+    public Mono<Void> invalidateAll() {
+        return redisTemplate.scan(ScanOptions.scanOptions().match(redisKey("*")).count(500).build())
+                .buffer(500)
+                .concatMap(keys -> redisTemplate.delete(keys.toArray(String[]::new)))
+                .then(Mono.fromRunnable(this::clearLocal));
+    }
+
+    /**
+     * Снимок L1 для перезапуска узла: ключ, срок жизни, delta и значение в формате codec.
+     * Отметки "значения нет" и истёкшие записи не сохраняются.
+     */
+    void writeSnapshot(DataOutputStream out) throws IOException {
+        long now = System.currentTimeMillis();
+        List<Map.Entry<String, Entry<T>>> entries = localCache == null ? List.of() : localCache.asMap().entrySet().stream()
+                .filter(entry -> !entry.getValue().isNegative() && entry.getValue().expireAt() > now)
+                .toList();
+        out.writeInt(entries.size());
+        for (Map.Entry<String, Entry<T>> entry : entries) {
+            byte[] payload = codec.encode(entry.getValue().value());
+            out.writeUTF(entry.getKey());
+            out.writeLong(entry.getValue().expireAt());
+            out.writeLong(entry.getValue().delta());
+            out.writeInt(payload.length);
+            out.write(payload);
+        }
+    }
+
+    /**
+     * @return число восстановленных в L1 записей
+     */
+    int readSnapshot(DataInputStream in) throws IOException {
+        long now = System.currentTimeMillis();
+        int count = in.readInt();
+        int restored = 0;
+        for (int i = 0; i < count; i++) {
+            String key = in.readUTF();
+            long expireAt = in.readLong();
+            long delta = in.readLong();
+            byte[] payload = in.readNBytes(in.readInt());
+            if (localCache != null && expireAt > now) {
+                localCache.put(key, new Entry<>(codec.decode(payload), expireAt, delta));
+                restored++;
+            }
+        }
+        return restored;
+    }
+
+    boolean hasLocalCache() {
+        return localCache != null;
+    }
+
+    String codecId() {
+        return codec.id();
+    }
+
+    void evictLocal(String key) {
+        if (localCache != null)
+            localCache.invalidate(key);
+    }
+
+    void clearLocal() {
+        if (localCache != null)
+            localCache.invalidateAll();
+    }
+
+    private T refreshIfExpiring(String key, Entry<T> entry, Supplier<Mono<T>> loader) {
+        double random = ThreadLocalRandom.current().nextDouble(Double.MIN_VALUE, 1.0);
+        long now = System.currentTimeMillis();
+        if (now - entry.delta() * beta * Math.log(random) >= entry.expireAt() && !inFlight.containsKey(key)) {
+            earlyRefreshes.increment();
+            load(key, loader, true).subscribe(value -> log.debug("Early refresh: cache={}, key={}", name, key),
+                    e -> log.warn("Early refresh failed: cache={}, key={}: {}", name, key, e.getMessage()));
+        }
+        return entry.value();
+    }
+
+    /**
+     * @param admitted запись уже была в кеше (раннее обновление) - фильтр частоты не нужен
+     */
+    private Mono<T> load(String key, Supplier<Mono<T>> loader, boolean admitted) {
+        return inFlight.computeIfAbsent(key, k -> {
+            AtomicReference<Mono<T>> self = new AtomicReference<>();
+            Mono<T> load = Mono.defer(() -> {
+                        long start = System.currentTimeMillis();
+                        long loadGeneration = generation.get(); // значение, загруженное до смены поколения, - старое
+                        return loader.get()
+                                .flatMap(value -> (admitted || isAdmitted(k)
+                                        ? put(k, value, System.currentTimeMillis() - start, loadGeneration)
+                                        : Mono.just(false))
+                                        .thenReturn(value))
+                                .switchIfEmpty(Mono.defer(() -> negativeTtl != null && (admitted || isAdmitted(k))
+                                        ? putNegative(k, loadGeneration).then(Mono.empty())
+                                        : Mono.empty()));
+                    })
+                    .doFinally(signal -> inFlight.remove(k, self.get()))
+                    .cache();
+            self.set(load);
+            return load;
+        });
+    }
+
+    private boolean isAdmitted(String key) {
+        if (admission == null || admission.frequency(key) > admissionThreshold)
+            return true;
+        rejections.increment();
+        return false;
+    }
+
+    private Mono<Boolean> put(String key, T value, long delta, long keyGeneration) {
+        return write(key, new Entry<>(value, System.currentTimeMillis() + ttl.toMillis(), delta), codec.encode(value), ttl,
+                keyGeneration);
+    }
+
+    private Mono<Boolean> putNegative(String key, long keyGeneration) {
+        return write(key, new Entry<>(null, System.currentTimeMillis() + negativeTtl.toMillis(), NEGATIVE), new byte[0],
+                negativeTtl, keyGeneration);
+    }
+
+    private Mono<Boolean> write(String key, Entry<T> entry, byte[] payload, Duration entryTtl, long keyGeneration) {
+        if (localCache != null && keyGeneration == generation.get())
+            localCache.put(key, entry);
+        ByteBuffer bytes = ByteBuffer.allocate(HEADER_SIZE + payload.length)
+                .putLong(entry.expireAt())
+                .putLong(entry.delta())
+                .put(payload);
+        Mono<Boolean> write = maxBytes > 0
+                ? redisTemplate.execute(BOUNDED_SET_SCRIPT, List.of(indexKey(), indexKey() + ":sizes", redisKey(key, keyGeneration)),
+                        List.of(bytes.array(), ascii(entryTtl.toMillis()), ascii(System.currentTimeMillis()), ascii(maxBytes)))
+                .next()
+                .doOnNext(evictions::increment)
+                .map(evicted -> true)
+                : redisTemplate.opsForValue().set(redisKey(key, keyGeneration), bytes.array(), entryTtl);
+        return write
+                .onErrorResume(e -> {
+                    log.warn("Cache write failed: cache={}, key={}: {}", name, key, e.getMessage());
+                    return Mono.just(false);
+                });
+    }
+
+    private Entry<T> decode(String key, byte[] bytes) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            long expireAt = buffer.getLong();
+            long delta = buffer.getLong();
+            if (delta == NEGATIVE)
+                return new Entry<>(null, expireAt, delta);
+            return new Entry<>(codec.decode(Arrays.copyOfRange(bytes, HEADER_SIZE, bytes.length)), expireAt, delta);
+        } catch (RuntimeException e) { // старый формат или повреждённая запись - промах
+            log.warn("Cannot decode cache entry: cache={}, key={}: {}", name, key, e.getMessage());
+            return null;
+        }
+    }
+
+    private String redisKey(String key) {
+        return redisKey(key, generation.get());
+    }
+
+    private String redisKey(String key, long keyGeneration) {
+        return "cache:" + name + ":" + codec.id() + (keyGeneration >= 0 ? ":" + keyGeneration : "") + "::" + key;
+    }
+
+    private String eventKey(String event) {
+        return "cache:" + name + ":event:" + event;
+    }
+
+    private String indexKey() {
+        return "cache:" + name + ":" + codec.id() + ":index";
+    }
+
+    private static byte[] ascii(long value) {
+        return String.valueOf(value).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private Counter counter(MeterRegistry meterRegistry, String tier, String result) {
+        return Counter.builder("cache.tier.gets")
+                .tag("cache", name)
+                .tag("tier", tier)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param expireAt срок жизни записи, epoch ms
+     * @param delta    длительность загрузки значения, ms; -1 - отметка "значения нет"
+     */
+    public record Entry<T>(T value, long expireAt, long delta) {
+        boolean isNegative() {
+            return delta == NEGATIVE;
+        }
+    }
+
+    /**
+     * @param admissionThreshold значение пишется, когда ключ запрошен на узле больше этого числа раз; -1 - всегда
+     * @param maxBytes           ограничение суммарного размера значений в Redis, байт; 0 - без ограничения
+     * @param negativeTtl        срок отметки "значения нет"; null - пустой результат не кешируется
+     */
+    public record Limits(int admissionThreshold, long maxBytes, Duration negativeTtl) {
+        public static final Limits NONE = new Limits(-1, 0, null);
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.online_shop.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Создаёт ReactiveCache и доставляет им инвалидации с других узлов.
+ * Для кешей из shop.cache.l1.names включается L1 в памяти узла: не больше shop.cache.l1.maximum-size записей,
+ * время жизни - TTL кеша, но не дольше shop.cache.l1.max-ttl.
+ */
+@Component
+@Slf4j
+public class ReactiveCacheManager implements InitializingBean, DisposableBean {
+    private final ReactiveRedisTemplate<String, byte[]> redisTemplate;
+    private final CacheInvalidationBus invalidationBus;
+    private final MeterRegistry meterRegistry;
+    private final ConcurrentMap<String, ReactiveCache<?>> caches = new ConcurrentHashMap<>();
+    private Disposable invalidations;
+
+    @Value("${shop.cache.l1.names:item,items,itemsCount,itemsInCart}")
+    List<String> localCacheNames;
+
+    @Value("${shop.cache.l1.maximum-size:10000}")
+    long localCacheMaximumSize;
+
+    @Value("${shop.cache.l1.max-ttl:60s}")
+    Duration localCacheMaxTtl;
+
+    @Value("${shop.cache.early-refresh-beta:1.0}")
+    double earlyRefreshBeta;
+
+    public ReactiveCacheManager(ReactiveRedisTemplate<String, byte[]> cacheRedisTemplate,
+                                CacheInvalidationBus invalidationBus, MeterRegistry meterRegistry) {
+        this.redisTemplate = cacheRedisTemplate;
+        this.invalidationBus = invalidationBus;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public <T> ReactiveCache<T> createCache(String name, Duration ttl, CacheCodec<T> codec) {
+        return createCache(name, ttl, codec, ReactiveCache.Limits.NONE);
+    }
+
+    public <T> ReactiveCache<T> createCache(String name, Duration ttl, CacheCodec<T> codec, ReactiveCache.Limits limits) {
+        ReactiveCache<T> cache = new ReactiveCache<>(name, redisTemplate, codec, ttl, earlyRefreshBeta,
+                localCacheNames.contains(name)
+                        ? Caffeine.newBuilder()
+                        .maximumSize(localCacheMaximumSize)
+                        .expireAfterWrite(ttl.compareTo(localCacheMaxTtl) > 0 ? localCacheMaxTtl : ttl)
+                        .build()
+                        : null,
+                invalidationBus, meterRegistry, limits);
+        if (caches.putIfAbsent(name, cache) != null)
+            throw new IllegalStateException("Cache already exists: " + name);
+        return cache;
+    }
+
+    Collection<ReactiveCache<?>> getCaches() {
+        return caches.values();
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        invalidations = invalidationBus.listen()
+                .doOnError(e -> {
+                    log.warn("Cache invalidation listener failed: {}", e.getMessage());
+                    caches.values().forEach(ReactiveCache::clearLocal);
+                })
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1)).maxBackoff(Duration.ofSeconds(30)))
+                .subscribe(this::invalidateLocal);
+    }
+
+    @Override
+    public void destroy() {
+        if (invalidations != null)
+            invalidations.dispose();
+    }
+
+    void invalidateLocal(CacheInvalidation invalidation) {
+        ReactiveCache<?> cache = caches.get(invalidation.cacheName());
+        if (cache == null)
+            return;
+        if (invalidation.key() == null)
+            cache.clearLocal();
+        else
+            cache.evictLocal(invalidation.key());
+    }
+}
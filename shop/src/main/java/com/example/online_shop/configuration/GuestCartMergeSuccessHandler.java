@@ -0,0 +1,41 @@
+package com.example.online_shop.configuration;
+
+import com.example.online_shop.service.CartService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.web.server.WebFilterExchange;
+import org.springframework.security.web.server.authentication.RedirectServerAuthenticationSuccessHandler;
+import org.springframework.security.web.server.authentication.ServerAuthenticationSuccessHandler;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * После входа переносит корзину гостя из сессии в корзину пользователя, затем - обычный редирект формы входа.
+ * Атрибут сессии снимается, как только перенос записан, - даже если корзину гостя удалить не удалось, иначе
+ * следующий вход перенёс бы её ещё раз. Ошибка переноса вход не прерывает: корзина гостя остаётся в Redis
+ * до истечения.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class GuestCartMergeSuccessHandler implements ServerAuthenticationSuccessHandler {
+    private final CartService cartService;
+    private final ServerAuthenticationSuccessHandler delegate = new RedirectServerAuthenticationSuccessHandler();
+
+    @Override
+    public Mono<Void> onAuthenticationSuccess(WebFilterExchange webFilterExchange, Authentication authentication) {
+        return webFilterExchange.getExchange().getSession()
+                .flatMap(session -> {
+                    String guest = session.getAttribute(CartService.GUEST_CART_ATTRIBUTE);
+                    if (guest == null) return Mono.empty();
+                    return cartService.mergeGuestCart(guest, authentication.getName())
+                            .then(Mono.fromRunnable(() -> session.getAttributes().remove(CartService.GUEST_CART_ATTRIBUTE)))
+                            .onErrorResume(e -> {
+                                log.warn("Cannot merge guest cart {} into {}: {}", guest, authentication.getName(), e.getMessage());
+                                return Mono.empty();
+                            });
+                })
+                .then(delegate.onAuthenticationSuccess(webFilterExchange, authentication));
+    }
+}
@@ -28,19 +28,26 @@ public class SecurityConfig {
     }
 
     @Bean
-    public SecurityWebFilterChain securityWebFilterChain(ServerHttpSecurity http) throws UnsupportedEncodingException {
+    public SecurityWebFilterChain securityWebFilterChain(ServerHttpSecurity http,
+                                                         GuestCartMergeSuccessHandler guestCartMergeSuccessHandler)
+            throws UnsupportedEncodingException {
         return http
                 .securityContextRepository(new WebSessionServerSecurityContextRepository())
                 .csrf(ServerHttpSecurity.CsrfSpec::disable)
                 .oauth2Client(Customizer.withDefaults())
                 .authorizeExchange(exchanges -> exchanges
-                        .pathMatchers("/admin/items/add").hasRole("ADMIN")
+                        .pathMatchers("/admin/items/add", "/admin/orders/**").hasRole("ADMIN")
                         .pathMatchers(HttpMethod.GET, "/items/**").permitAll()
                         .pathMatchers(HttpMethod.POST, "/signup").permitAll()
                         .pathMatchers(HttpMethod.POST, "/login").permitAll()
                         .pathMatchers("/main/items", "/", "/login", "/signup", "/error").permitAll()
+                        // корзина гостя (в Redis, переносится в корзину пользователя при входе)
+                        .pathMatchers("/cart/items", "/cart/items/*", "/api/cart/items").permitAll()
+                        .pathMatchers(HttpMethod.POST, "/main/items/*", "/items/*").permitAll()
+                        // пробы liveness/readiness приходят без входа, иначе под не станет готовым
+                        .pathMatchers(HttpMethod.GET, "/actuator/health", "/actuator/health/**").permitAll()
                         .anyExchange().authenticated())
-                .formLogin(Customizer.withDefaults())
+                .formLogin(form -> form.authenticationSuccessHandler(guestCartMergeSuccessHandler))
                 .logout(logout -> logout
                         .logoutUrl("/logout")
                         .logoutSuccessHandler(new HttpStatusReturningServerLogoutSuccessHandler()))
@@ -1,76 +1,148 @@
 package com.example.online_shop.configuration;
 
+import com.example.online_shop.cache.BinaryCacheCodec;
+import com.example.online_shop.cache.CacheCodec;
+import com.example.online_shop.cache.ItemDtoBinaryCodec;
+import com.example.online_shop.cache.ItemInCartBinaryCodec;
+import com.example.online_shop.cache.JacksonCacheCodec;
+import com.example.online_shop.cache.Lz4CacheCodec;
+import com.example.online_shop.cache.ReactiveCache;
+import com.example.online_shop.cache.ReactiveCacheManager;
 import com.example.online_shop.model.dto.CartDto;
 import com.example.online_shop.model.dto.ItemDto;
 import com.example.online_shop.model.entity.ItemInCart;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.modelmapper.ModelMapper;
-import org.springframework.boot.autoconfigure.cache.RedisCacheManagerBuilderCustomizer;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.cache.RedisCacheConfiguration;
-import org.springframework.data.redis.cache.RedisCacheManager;
-import org.springframework.data.redis.connection.RedisConnectionFactory;
-import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.transaction.ReactiveTransactionManager;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.context.annotation.SessionScope;
 
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 @Slf4j
 @Configuration
 @RequiredArgsConstructor
 public class WebConfiguration {
 
-    private final RedisConnectionFactory redisConnectionFactory;
     private final Jackson2ObjectMapperBuilder jackson2ObjectMapperBuilder;
+
+    @Value("${shop.cache.items-ttl:1h}")
+    Duration itemsTtl; // актуальность обеспечивает DatabaseChangeListener, TTL - страховка
+
+    @Value("${shop.cache.item-ttl:6h}")
+    Duration itemTtl;
+
+    @Value("${shop.cache.negative-ttl:30s}")
+    Duration negativeTtl; // короткий: новый товар станет виден не позже, даже если NOTIFY потерян
+
+    @Value("${shop.cache.items.admission-threshold:1}")
+    int itemsAdmissionThreshold; // страница кешируется со второго запроса на узле
+
+    @Value("${shop.cache.items.max-size:64MB}")
+    DataSize itemsMaxSize; // по размеру значений: страница может быть и в 10, и в 100 товаров
+
+    @Value("${shop.cache.codec.format:binary}")
+    String cacheCodecFormat; // binary | json
+
+    @Value("${shop.cache.codec.lz4.enabled:true}")
+    boolean cacheLz4Enabled;
+
+    @Value("${shop.cache.codec.lz4.threshold:512}")
+    int cacheLz4Threshold; // значения короче не сжимаются
+
+    @Bean
+    public ReactiveRedisTemplate<String, byte[]> cacheRedisTemplate(ReactiveRedisConnectionFactory connectionFactory) {
+        return new ReactiveRedisTemplate<>(connectionFactory, RedisSerializationContext
+                .<String, byte[]>newSerializationContext(StringRedisSerializer.UTF_8)
+                .value(RedisSerializer.byteArray())
+                .build());
+    }
+
+    /**
+     * Страницы каталога (pageSize + 1 товаров). Ключей по поисковым строкам может быть сколько угодно,
+     * поэтому пишутся только повторяющиеся запросы, а суммарный размер записей в Redis ограничен.
+     */
+    @Bean
+    public ReactiveCache<List<ItemDto>> itemsCache(ReactiveCacheManager reactiveCacheManager) {
+        var om = cacheObjectMapper();
+        return reactiveCacheManager.createCache("items", itemsTtl, cacheCodec(ItemDtoBinaryCodec.INSTANCE.listOf(),
+                        new JacksonCacheCodec<>(om, om.getTypeFactory().constructCollectionType(List.class, ItemDto.class))),
+                new ReactiveCache.Limits(itemsAdmissionThreshold, itemsMaxSize.toBytes(), null));
+    }
+
+    /**
+     * Товар по id; отсутствующие id запоминаются на shop.cache.negative-ttl.
+     */
+    @Bean
+    public ReactiveCache<ItemDto> itemCache(ReactiveCacheManager reactiveCacheManager) {
+        var om = cacheObjectMapper();
+        return reactiveCacheManager.createCache("item", itemTtl, cacheCodec(ItemDtoBinaryCodec.INSTANCE,
+                        new JacksonCacheCodec<>(om, om.constructType(ItemDto.class))),
+                new ReactiveCache.Limits(-1, 0, negativeTtl));
+    }
+
+    /**
+     * Байты картинок, ещё не перенесённых из таблицы в хранилище; отсутствие картинки тоже кешируется.
+     */
+    @Bean
+    public ReactiveCache<byte[]> pictureCache(ReactiveCacheManager reactiveCacheManager) {
+        return reactiveCacheManager.createCache("picture", Duration.ofDays(1), CacheCodec.RAW,
+                new ReactiveCache.Limits(-1, 0, negativeTtl));
+    }
+
+    @Bean
+    public ReactiveCache<List<ItemInCart>> itemsInCartCache(ReactiveCacheManager reactiveCacheManager) {
+        var om = cacheObjectMapper();
+        return reactiveCacheManager.createCache("itemsInCart", Duration.ofDays(30),
+                cacheCodec(ItemInCartBinaryCodec.INSTANCE.listOf(), new JacksonCacheCodec<>(om, om.getTypeFactory()
+                        .constructCollectionType(List.class, ItemInCart.class))));
+    }
+
+    /**
+     * Оценка числа товаров для пагинации - точность не нужна, поэтому короткий TTL вместо инвалидации.
+     */
+    @Bean
+    public ReactiveCache<Long> itemsCountCache(ReactiveCacheManager reactiveCacheManager) {
+        return reactiveCacheManager.createCache("itemsCount", Duration.ofMinutes(1), cacheCodec(BinaryCacheCodec.LONG,
+                new JacksonCacheCodec<>(cacheObjectMapper(), cacheObjectMapper().constructType(Long.class))));
+    }
+
     @Bean
     public ModelMapper modelMapper() {
         return new ModelMapper();
     }
 
+    /**
+     * Явные границы транзакций для реактивного кода, где @Transactional неудобен (пакетная запись корзин).
+     */
     @Bean
-    public RedisCacheManager cacheManager() {
-        var om = jackson2ObjectMapperBuilder.createXmlMapper(false).build();
-
-        Map<String, RedisCacheConfiguration> cacheConfigs = new HashMap<>();
-
-        cacheConfigs.put("item", defaultCacheConfig()
-                .entryTtl(Duration.ofSeconds(5))
-                .serializeValuesWith(RedisSerializationContext
-                        .SerializationPair
-                        .fromSerializer(new Jackson2JsonRedisSerializer<>(ItemDto.class))));
-
-        cacheConfigs.put("picture", defaultCacheConfig()
-                .entryTtl(Duration.ofDays(1))
-                .serializeValuesWith(RedisSerializationContext
-                        .SerializationPair
-                        .fromSerializer(new Jackson2JsonRedisSerializer<>(byte[].class))));
-
-        cacheConfigs.put("items", defaultCacheConfig()
-                .entryTtl(Duration.ofSeconds(5))
-                .serializeValuesWith(RedisSerializationContext
-                        .SerializationPair
-                        .fromSerializer(new Jackson2JsonRedisSerializer<>(om.getTypeFactory()
-                                .constructCollectionType(List.class, ItemDto.class)))));
-
-        cacheConfigs.put("itemsInCart", defaultCacheConfig()
-                .entryTtl(Duration.ofDays(30))
-                .serializeValuesWith(RedisSerializationContext
-                        .SerializationPair.fromSerializer(new Jackson2JsonRedisSerializer<>(om.getTypeFactory()
-                                .constructCollectionType(List.class, ItemInCart.class)))));
-
-        return RedisCacheManager.builder(redisConnectionFactory)
-                .cacheDefaults(defaultCacheConfig()).withInitialCacheConfigurations(cacheConfigs).build();
+    public TransactionalOperator transactionalOperator(ReactiveTransactionManager transactionManager) {
+        return TransactionalOperator.create(transactionManager);
+    }
+
+    /**
+     * Формат значений в Redis по shop.cache.codec.*: двоичный (varint, с LZ4 для крупных значений) или JSON.
+     */
+    private <T> CacheCodec<T> cacheCodec(BinaryCacheCodec<T> binary, JacksonCacheCodec<T> json) {
+        CacheCodec<T> codec = "json".equalsIgnoreCase(cacheCodecFormat) ? json : binary;
+        return cacheLz4Enabled ? new Lz4CacheCodec<>(codec, cacheLz4Threshold) : codec;
     }
 
-    private RedisCacheConfiguration defaultCacheConfig() {
-        return RedisCacheConfiguration.defaultCacheConfig().disableCachingNullValues();
+    private ObjectMapper cacheObjectMapper() {
+        return jackson2ObjectMapperBuilder.createXmlMapper(false).build();
     }
 }
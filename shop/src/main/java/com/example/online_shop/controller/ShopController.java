@@ -1,13 +1,22 @@
 package com.example.online_shop.controller;
 
+import com.example.online_shop.enumiration.EOrderStatus;
+import com.example.online_shop.exception.ImageUploadException;
+import com.example.online_shop.exception.PaymentPendingException;
 import com.example.online_shop.model.dto.*;
 import com.example.online_shop.service.*;
 import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PostAuthorize;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Mono;
 
@@ -17,11 +26,20 @@ import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.security.Principal;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
 import java.util.function.Function;
 
 @Controller
 @RequiredArgsConstructor
 public class ShopController {
+    private static final CacheControl IMMUTABLE_IMAGE = CacheControl.maxAge(Duration.ofDays(365))
+            .cachePublic()
+            .immutable();
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 64; // orders.idempotency_key
+
     private final ItemService itemService;
     private final OrderService orderService;
     private final CartService cartService;
@@ -44,6 +62,8 @@ public class ShopController {
      * sort - сортировка. Перечисление NO, ALPHA, PRICE (по умолчанию, NO - не использовать сортировку)
      * pageSize - максимальное число товаров на странице (по умолчанию, 10)
      * pageNumber - номер текущей страницы (по умолчанию, 1)
+     * cursor - курсор из "paging.nextCursor": следующая страница выбирается по ключу сортировки,
+     * а не через offset (для пустого search)
      * Возвращает: шаблон "main.html"
      * используется модель для заполнения шаблона:
      * "items" - List<List<Item>> - список товаров по N в ряд (id, title, description, imagePath, count, price)
@@ -54,21 +74,30 @@ public class ShopController {
      * "pageSize" - максимальное число товаров на странице (по умолчанию, 10)
      * "hasNext" - можно ли пролистнуть вперед
      * "hasPrevious" - можно ли пролистнуть назад
+     * "nextCursor" - курсор следующей страницы
+     * "previousCursor" - курсор предыдущей страницы (параметр before)
+     * "totalEstimate" - приблизительное число товаров (без поиска)
+     * "cartSummary" - сводка корзины для значка (positions, quantity, total)
      */
 
     @GetMapping("/main/items")
-    public Mono<String> getItems(Model model, Principal principal,
+    public Mono<String> getItems(Model model, ServerWebExchange exchange,
                                  @RequestParam(defaultValue = "", name = "search") String search,
                                  @RequestParam(defaultValue = "NO", name = "sort") String sort,
                                  @RequestParam(defaultValue = "1", name = "pageNumber") int pageNumber,
-                                 @RequestParam(defaultValue = "10", name = "pageSize") int pageSize) {
+                                 @RequestParam(defaultValue = "10", name = "pageSize") int pageSize,
+                                 @RequestParam(required = false, name = "cursor") String cursor,
+                                 @RequestParam(required = false, name = "before") String before) {
 
-        model.addAttribute("items", itemService.getItems(search, sort, pageNumber, pageSize,
-                principal == null ? "" : principal.getName()));
         model.addAttribute("search", search);
         model.addAttribute("sort", sort);
-        model.addAttribute("paging", itemService.getPaging(search, sort, pageNumber, pageSize));
-        return Mono.just("main");
+        return cartOwner(exchange, false)
+                .flatMap(owner -> itemService.getPage(search, sort, cursor, before, pageNumber, pageSize, owner)
+                        .zipWith(cartService.getSummary(owner)))
+                .doOnNext(pageAndSummary -> model.addAttribute("items", pageAndSummary.getT1().getItems()))
+                .doOnNext(pageAndSummary -> model.addAttribute("paging", pageAndSummary.getT1().getPaging()))
+                .doOnNext(pageAndSummary -> model.addAttribute("cartSummary", pageAndSummary.getT2()))
+                .map(pageAndSummary -> "main");
 
     }
 
@@ -93,16 +122,20 @@ public class ShopController {
      * @param model "items" - List<Item> - список товаров в корзине (id, title, description, imgPath, count, price)
      *              "total" - суммарная стоимость заказа
      *              "empty" - true если в корзину не добавлен ни один товар
+     *              "idempotencyKey" - ключ попытки оформления для формы покупки
      * @return шаблон "cart.html"
      */
     @GetMapping("/cart/items")
-    public Mono<String> getChart(Model model, Principal principal) {
-        return cartService.getCart(principal == null ? "" : principal.getName())
-                .doOnNext(cart -> model.addAttribute("items", cart.getItems().values()))
-                .doOnNext(cart -> model.addAttribute("total", cart.getTotal()))
-                .doOnNext(cart -> model.addAttribute("empty", cart.isEmpty()))
-                .zipWith(paymentsService.getBalance().onErrorReturn(BigDecimal.valueOf(-1)).log(), (cart, balance) ->
-                        model.addAttribute("canBuy", balance.compareTo(cart.getTotal()) >= 0))
+    public Mono<String> getChart(Model model, ServerWebExchange exchange) {
+        return cartOwner(exchange, false)
+                .flatMap(owner -> cartService.getCart(owner)
+                        .doOnNext(cart -> model.addAttribute("items", cart.getItems().values()))
+                        .doOnNext(cart -> model.addAttribute("total", cart.getTotal()))
+                        .doOnNext(cart -> model.addAttribute("empty", cart.isEmpty()))
+                        .doOnNext(cart -> model.addAttribute("idempotencyKey", UUID.randomUUID().toString()))
+                        .then(cartService.getSummary(owner)))
+                .zipWith(paymentsService.getBalance().onErrorReturn(BigDecimal.valueOf(-1)).log(), (summary, balance) ->
+                        model.addAttribute("canBuy", balance.compareTo(summary.getTotal()) >= 0))
                 .map(cart -> "cart");
     }
 
@@ -123,6 +156,23 @@ public class ShopController {
                 .map(itemDto -> "redirect:/cart/items");
     }
 
+    /**
+     * POST "/api/cart/items" - изменить количество нескольких товаров в корзине одной транзакцией
+     *
+     * @param operations JSON-массив [{"itemId": 1, "delta": 2}, ...], отрицательный delta уменьшает количество
+     * @return сводка корзины после изменения (positions, quantity, total); 400 - неизвестный товар
+     * или недопустимая операция, корзина при этом не меняется
+     */
+    @PostMapping("/api/cart/items")
+    @ResponseBody
+    public Mono<CartSummaryDto> changeItemsInCart(@RequestBody List<CartOperationDto> operations,
+                                                  ServerWebExchange exchange) {
+        return cartOwner(exchange, true)
+                .flatMap(owner -> cartService.applyAll(operations, owner))
+                .onErrorMap(IllegalArgumentException.class,
+                        e -> new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage()));
+    }
+
     /**
      * GET "/items/{id}" - карточка товара
      *
@@ -131,8 +181,10 @@ public class ShopController {
      * @return "item"
      */
     @GetMapping("/items/{id}")
-    public Mono<String> getItem(@PathVariable("id") Long id, Model model, Principal principal) {
-        return itemService.getItemDtoById(id, principal == null ? "" : principal.getName())
+    public Mono<String> getItem(@PathVariable("id") Long id, Model model, ServerWebExchange exchange) {
+        return cartOwner(exchange, false)
+                .flatMap(owner -> itemService.getItemDtoById(id, owner))
+                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND)))
                 .doOnNext(item -> model.addAttribute("item", item))
                 .map(order -> "item");
     }
@@ -153,31 +205,48 @@ public class ShopController {
 
     /**
      * POST "/buy" - купить товары в корзине (выполняет покупку товаров в корзине и очищает ее)
+     * Параметры формы:
+     * idempotencyKey - ключ попытки оформления со страницы корзины: повторная отправка формы возвращает тот же заказ
+     * (без ключа - новая попытка)
      *
      * @return редирект на "/orders/{id}?newOrder=true"
      */
     @PostMapping("/buy")
-    public Mono<String> buy(Principal principal) {
-        return orderService.buy(principal == null ? "" : principal.getName())
+    public Mono<String> buy(Principal principal, ServerWebExchange exchange) {
+        return exchange.getFormData()
+                .map(form -> Optional.ofNullable(form.getFirst("idempotencyKey"))
+                        .filter(key -> !key.isBlank() && key.length() <= MAX_IDEMPOTENCY_KEY_LENGTH)
+                        .orElseGet(() -> UUID.randomUUID().toString()))
+                .flatMap(key -> orderService.buy(principal == null ? "" : principal.getName(), key))
                 .map(id -> "redirect:/orders/" + id + "?newOrder=true")
+                .onErrorResume(PaymentPendingException.class, e -> Mono.just("redirect:/error?message="
+                        + URLEncoder.encode("Оплата заказа ещё не подтверждена - заказ появится в истории после подтверждения."
+                        + " Новый заказ можно оформить после подтверждения оплаты", StandardCharsets.UTF_8)))
                 .onErrorReturn("redirect:/error?message="
                         + URLEncoder.encode("Недостаточно средств. Пополните счёт и повторите попытку"));
     }
 
     /**
-     * GET "/orders" - список заказов
+     * GET "/orders" - заказы пользователя, новые сверху, постранично
+     * Параметры:
+     * before - курсор "nextCursor" предыдущей страницы (по умолчанию, первая страница)
      *
-     * @param model "orders" -List<Order> - список заказов:
+     * @param model "orders" - List<Order> - заказы страницы, "paging" - pageSize, hasNext, nextCursor
      * @return "orders.html"
      */
     @GetMapping("/orders")
-    public Mono<String> getOrders(Model model) {
-        model.addAttribute("orders", orderService.getOrders());
-        return Mono.just("orders");
+    public Mono<String> getOrders(Model model, Principal principal,
+                                  @RequestParam(required = false, name = "before") Long before) {
+        return orderService.getOrders(principal.getName(), before)
+                .doOnNext(page -> {
+                    model.addAttribute("orders", page.getOrders());
+                    model.addAttribute("paging", page);
+                })
+                .thenReturn("orders");
     }
 
     /**
-     * GET "/orders/{id}" - карточка заказа
+     * GET "/orders/{id}" - карточка заказа; чужой заказ не отличается от несуществующего - 404
      *
      * @param model    "order" - заказ, "items" - List<Item> - список товаров в заказе (id, title, description, imgPath, count, price)
      * @param id       идентификатор заказа
@@ -185,23 +254,50 @@ public class ShopController {
      * @return "order.html"
      */
     @GetMapping("/orders/{id}")
-    public Mono<String> getOrder(Model model, @PathVariable("id") Long id,
+    public Mono<String> getOrder(Model model, @PathVariable("id") Long id, Principal principal,
                                  @RequestParam(name = "newOrder", defaultValue = "false") boolean newOrder) {
-        model.addAttribute("newOrder", newOrder);
-        model.addAttribute("order", orderService.getOrderById(id));
-        return Mono.just("order");
+        return orderService.getOrderById(id, principal.getName())
+                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND)))
+                .doOnNext(order -> {
+                    model.addAttribute("newOrder", newOrder);
+                    model.addAttribute("order", order);
+                })
+                .thenReturn("order");
     }
 
     /**
-     * GET "/items/image/{id}" - эндпоинт, возвращающий набор байт картинки поста
+     * GET "/items/image/{id}" - эндпоинт, возвращающий картинку товара
      *
-     * @param id идентификатор товара
-     * @return картинка в байтах
+     * @param id      идентификатор товара
+     * @param version хеш содержимого из imagePath ("?v="). Вместе с шириной образует ETag: если браузер прислал его
+     *                в If-None-Match, сразу отвечаем 304, не обращаясь ни к кешу, ни к базе
+     * @param width   желаемая ширина ("?w="): отдаётся наименьшая уменьшенная копия не уже запрошенной,
+     *                при её отсутствии - оригинал
+     * @return картинка: файл из хранилища отдаётся без копирования в память (sendfile)
      */
     @GetMapping("/items/image/{id}")
     @ResponseBody
-    public Mono<byte[]> getImage(@PathVariable("id") Long id) {
-        return itemService.getImage(id);
+    public Mono<ResponseEntity<Resource>> getImage(@PathVariable("id") Long id,
+                                                   @RequestParam(required = false, name = "v") String version,
+                                                   @RequestParam(required = false, name = "w") Integer width,
+                                                   ServerWebExchange exchange) {
+        Integer variantWidth = itemService.resolveImageWidth(width);
+        if (version != null && isNotModified(exchange, toETag(version, variantWidth)))
+            return Mono.just(ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(toETag(version, variantWidth))
+                    .cacheControl(IMMUTABLE_IMAGE)
+                    .build());
+        return itemService.getImage(id, variantWidth)
+                .map(image -> {
+                    if (image.getHash() == null)
+                        return ResponseEntity.ok().body(image.getContent());
+                    // 304 по ETag для неверсионированного url проверит ResponseEntityResultHandler
+                    return ResponseEntity.ok()
+                            .eTag(toETag(image.getHash(), image.getWidth()))
+                            .cacheControl(image.getHash().equals(version) ? IMMUTABLE_IMAGE : CacheControl.noCache())
+                            .body(image.getContent());
+                })
+                .defaultIfEmpty(ResponseEntity.notFound().build());
     }
 
     /**
@@ -225,10 +321,31 @@ public class ShopController {
     @PostAuthorize("hasRole('ADMIN')")
     public Mono<String> addItem(@ModelAttribute("item") Mono<ItemCreateDto> item) {
         return itemService.saveItem(item)
-                .map(itemDto -> "redirect:/items/" + itemDto.getId());
+                .map(itemDto -> "redirect:/items/" + itemDto.getId())
+                .onErrorResume(ImageUploadException.class, e -> Mono.just("redirect:/error?message="
+                        + URLEncoder.encode(e.getMessage(), StandardCharsets.UTF_8)));
     }
 
 
+    /**
+     * POST "/admin/orders/{id}/settle" - завершение заказа PENDING по результату сверки с платёжным сервисом
+     * Параметры:
+     * status - PAID или FAILED
+     *
+     * @return 204 - заказ завершён, 409 - заказа нет или он уже не PENDING
+     */
+    @PostMapping("/admin/orders/{id}/settle")
+    @PreAuthorize("hasRole('ADMIN')")
+    @ResponseBody
+    public Mono<ResponseEntity<Void>> settleOrder(@PathVariable("id") Long id,
+                                                  @RequestParam("status") EOrderStatus status) {
+        return orderService.settle(id, status)
+                .map(settled -> settled
+                        ? ResponseEntity.noContent().<Void>build()
+                        : ResponseEntity.status(HttpStatus.CONFLICT).<Void>build())
+                .onErrorReturn(IllegalArgumentException.class, ResponseEntity.badRequest().build());
+    }
+
     @GetMapping("/signup")
     public Mono<String> addUserPage() {
         return Mono.just("add-user");
@@ -264,12 +381,37 @@ public class ShopController {
         return Mono.just("error");
     }
 
+    private static String toETag(String imageHash, Integer width) {
+        return width == null ? imageHash : imageHash + "-w" + width;
+    }
+
+    private static boolean isNotModified(ServerWebExchange exchange, String tag) {
+        String etag = "\"" + tag + "\"";
+        return exchange.getRequest().getHeaders().getIfNoneMatch().stream()
+                .anyMatch(value -> value.equals(etag) || value.equals("W/" + etag));
+    }
+
     private Mono<ItemDto> inspectRequest(Long id, ServerWebExchange exchange) {
         return exchange.getFormData()
                 .map(MultiValueMap::toSingleValueMap)
                 .map(map -> map.get("action"))
-                .zipWith(exchange.getPrincipal().map(Principal::getName), (action, login)
-                        -> itemService.actionWithItemInCart(id, action, login))
+                .zipWith(cartOwner(exchange, true), (action, owner)
+                        -> itemService.actionWithItemInCart(id, action, owner))
                 .flatMap(Function.identity());
     }
+
+    /**
+     * Владелец корзины: логин пользователя, для гостя - ключ "guest:{id}" из сессии (CartService.GUEST_PREFIX).
+     *
+     * @param create создать ключ гостя, если его ещё нет; иначе гость без корзины получает пустую строку,
+     *               и сессия не создаётся ради чтения
+     */
+    private Mono<String> cartOwner(ServerWebExchange exchange, boolean create) {
+        return exchange.getPrincipal()
+                .map(Principal::getName)
+                .switchIfEmpty(exchange.getSession().map(session -> create
+                        ? (String) session.getAttributes().computeIfAbsent(CartService.GUEST_CART_ATTRIBUTE,
+                        name -> CartService.GUEST_PREFIX + UUID.randomUUID())
+                        : session.getAttributeOrDefault(CartService.GUEST_CART_ATTRIBUTE, "")));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,5 @@
+package com.example.online_shop.enumiration;
+
+public enum EOrderStatus {
+    PENDING, PAID, FAILED
+}
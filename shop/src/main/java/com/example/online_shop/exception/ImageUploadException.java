@@ -0,0 +1,7 @@
+package com.example.online_shop.exception;
+
+public class ImageUploadException extends RuntimeException {
+    public ImageUploadException(String message) {
+        super(message);
+    }
+}
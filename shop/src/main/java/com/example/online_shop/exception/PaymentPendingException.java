@@ -0,0 +1,11 @@
+package com.example.online_shop.exception;
+
+/**
+ * Исход оплаты заказа неизвестен (таймаут, обрыв связи, ошибка платёжного сервиса): заказ остаётся PENDING
+ * до сверки с платёжным сервисом.
+ */
+public class PaymentPendingException extends RuntimeException {
+    public PaymentPendingException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.online_shop.mapper;
+
+import com.example.online_shop.enumiration.ESort;
+import com.example.online_shop.model.dto.ItemCursorDto;
+import com.example.online_shop.model.dto.ItemDto;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Непрозрачный курсор для постраничного вывода по ключу: "sort\nid\nзначение ключа сортировки" в base64url.
+ */
+@Component
+@Slf4j
+public class ItemCursorMapper {
+    private static final String SEPARATOR = "\n";
+
+    public String toCursor(ESort sort, ItemDto last) {
+        String sortKey = switch (sort) {
+            case NO -> "";
+            case ALPHA -> last.getTitle();
+            case PRICE -> last.getPrice().toPlainString();
+        };
+        String raw = sort.name() + SEPARATOR + last.getId() + SEPARATOR + sortKey;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return курсор или null, если строка повреждена либо выдана для другой сортировки
+     */
+    public ItemCursorDto toCursorDto(String cursor, ESort sort) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8)
+                    .split(SEPARATOR, 3);
+            ItemCursorDto cursorDto = ItemCursorDto.builder()
+                    .sort(ESort.valueOf(parts[0]))
+                    .id(Long.valueOf(parts[1]))
+                    .build();
+            if (cursorDto.getSort() != sort) return null;
+            switch (sort) {
+                case ALPHA -> cursorDto.setTitle(parts[2]);
+                case PRICE -> cursorDto.setPrice(new BigDecimal(parts[2]));
+            }
+            return cursorDto;
+        } catch (RuntimeException e) {
+            log.warn("Invalid cursor={}: {}", cursor, e.getMessage());
+            return null;
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package com.example.online_shop.mapper;
 
+import com.example.online_shop.model.dto.CartSummaryDto;
 import com.example.online_shop.model.dto.ItemDto;
 import com.example.online_shop.model.dto.ItemInCartDto;
+import com.example.online_shop.model.entity.CartSummary;
 import com.example.online_shop.model.entity.ItemInCart;
 import lombok.RequiredArgsConstructor;
 import org.modelmapper.ModelMapper;
@@ -36,10 +38,19 @@ public class ItemInCartMapper {
         return mapper.map(item, ItemInCartDto.class);
     }
 
-    public ItemInCart toItemInCart(ItemDto itemDto) {
-        ItemInCart itemInCart = mapper.map(itemDto, ItemInCart.class);
-        itemInCart.setId(null);
-        itemInCart.setItemId(itemDto.getId());
-        return itemInCart;
+    /**
+     * Копия строки корзины с полями для показа из товара каталога; сама строка может лежать в кеше и не меняется.
+     */
+    public ItemInCart toItemInCart(ItemInCart row, ItemDto item) {
+        return row.toBuilder()
+                .title(item.getTitle())
+                .price(item.getPrice())
+                .description(item.getDescription())
+                .imagePath(item.getImagePath())
+                .build();
+    }
+
+    public CartSummaryDto toCartSummaryDto(CartSummary summary) {
+        return mapper.map(summary, CartSummaryDto.class);
     }
 }
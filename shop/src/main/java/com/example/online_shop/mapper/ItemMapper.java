@@ -3,6 +3,7 @@ package com.example.online_shop.mapper;
 import com.example.online_shop.model.dto.ItemCreateDto;
 import com.example.online_shop.model.dto.ItemDto;
 import com.example.online_shop.model.entity.Item;
+import com.example.online_shop.model.entity.ItemSummary;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.modelmapper.ModelMapper;
@@ -20,13 +21,40 @@ public class ItemMapper {
     @Value("${shop.image.path}")
     private String imagePath;
 
+    @Value("${shop.image.variants.thumbnail:300}")
+    private int thumbnailWidth;
+
     public ItemDto toDto(Item item) {
         ItemDto dto = mapper.map(item, ItemDto.class);
-        dto.setImagePath(imagePath + dto.getId());
+        dto.setImagePath(toImagePath(dto));
+        dto.setThumbnailPath(toThumbnailPath(dto));
+        return dto;
+    }
+
+    public ItemDto toDto(ItemSummary item) {
+        ItemDto dto = mapper.map(item, ItemDto.class);
+        dto.setImagePath(toImagePath(dto));
+        dto.setThumbnailPath(toThumbnailPath(dto));
         return dto;
     }
 
-    public Flux<ItemDto> toListDto(Flux<Item> entities) {
+    /**
+     * Адрес картинки версионируется хешем содержимого: при замене картинки меняется и url,
+     * поэтому браузер может кешировать его бессрочно.
+     */
+    private String toImagePath(ItemDto dto) {
+        return dto.getImageHash() == null
+                ? imagePath + dto.getId()
+                : imagePath + dto.getId() + "?v=" + dto.getImageHash();
+    }
+
+    private String toThumbnailPath(ItemDto dto) {
+        return dto.getImageHash() == null
+                ? toImagePath(dto) // у картинок в таблице items копий нет
+                : toImagePath(dto) + "&w=" + thumbnailWidth;
+    }
+
+    public Flux<ItemDto> toListDto(Flux<ItemSummary> entities) {
         return entities.map(this::toDto);
     }
 
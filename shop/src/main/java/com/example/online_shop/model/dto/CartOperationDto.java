@@ -0,0 +1,15 @@
+package com.example.online_shop.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class CartOperationDto {
+    private Long itemId;
+    private int delta; // приращение количества, отрицательное - уменьшение
+}
@@ -0,0 +1,22 @@
+package com.example.online_shop.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class CartSummaryDto {
+    private int positions; // число разных товаров
+    private int quantity; // суммарное количество товаров
+    private BigDecimal total;
+
+    public static CartSummaryDto empty() {
+        return new CartSummaryDto(0, 0, BigDecimal.ZERO);
+    }
+}
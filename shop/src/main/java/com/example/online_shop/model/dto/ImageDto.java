@@ -0,0 +1,17 @@
+package com.example.online_shop.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.core.io.Resource;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ImageDto {
+    private String hash; // null для картинки, ещё не перенесённой из таблицы items
+    private Integer width; // ширина уменьшенной копии, null - оригинал
+    private Resource content;
+}
@@ -0,0 +1,20 @@
+package com.example.online_shop.model.dto;
+
+import com.example.online_shop.enumiration.ESort;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ItemCursorDto {
+    private ESort sort;
+    private Long id; // последний показанный товар
+    private String title;
+    private BigDecimal price;
+}
@@ -8,7 +8,7 @@ import lombok.NoArgsConstructor;
 import java.math.BigDecimal;
 
 @Data
-@Builder
+@Builder(toBuilder = true)
 @AllArgsConstructor
 @NoArgsConstructor
 public class ItemDto {
@@ -16,6 +16,8 @@ public class ItemDto {
     private String title;
     private String description;
     private String imagePath;
+    private String thumbnailPath; // уменьшенная копия для плитки каталога
+    private String imageHash;
     private int count;
     @Builder.Default
     private BigDecimal price = BigDecimal.valueOf(0);
@@ -0,0 +1,19 @@
+package com.example.online_shop.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class OrdersPageDto {
+    private List<OrderDto> orders;
+    private int pageSize;
+    private boolean hasNext;
+    private Long nextCursor; // id последнего заказа страницы - следующая страница начинается с более старых
+}
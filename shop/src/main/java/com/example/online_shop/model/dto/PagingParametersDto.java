@@ -10,4 +10,7 @@ public class PagingParametersDto {
     private int pageSize;
     private boolean hasNext;
     private boolean hasPrevious;
+    private String nextCursor; // курсор следующей страницы, если доступно листание по ключу
+    private String previousCursor; // курсор "before" предыдущей страницы, если доступно листание по ключу
+    private Long totalEstimate; // приблизительное число товаров (без поиска), null - неизвестно
 }
@@ -0,0 +1,26 @@
+package com.example.online_shop.model.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Table;
+
+import java.math.BigDecimal;
+
+/**
+ * Сводка корзины. Только для чтения: строку ведёт триггер items_in_cart_summary.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table("cart_summaries")
+public class CartSummary {
+    @Id
+    private String login;
+    private int positions;
+    private int quantity;
+    private BigDecimal total;
+}
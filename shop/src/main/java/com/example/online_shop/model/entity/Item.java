@@ -2,6 +2,7 @@ package com.example.online_shop.model.entity;
 
 import lombok.*;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Column;
 import org.springframework.data.relational.core.mapping.Table;
 
 import java.math.BigDecimal;
@@ -15,7 +16,9 @@ public class Item {
     @Id
     private Long id;
     @ToString.Exclude
-    private byte[] image;
+    private byte[] image; // картинки до переноса в хранилище
+    @Column("image_hash")
+    private String imageHash;
     private String title;
     private String description;
     private BigDecimal price;
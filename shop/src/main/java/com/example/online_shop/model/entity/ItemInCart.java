@@ -2,13 +2,18 @@ package com.example.online_shop.model.entity;
 
 import lombok.*;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
 import org.springframework.data.relational.core.mapping.Column;
 import org.springframework.data.relational.core.mapping.Table;
 
 import java.math.BigDecimal;
 
+/**
+ * Строка корзины (login, item_id, count). Название, цена, описание и картинка в таблице не хранятся -
+ * их подставляет ItemInCacheService.withCatalogFields из кеша каталога.
+ */
 @Data
-@Builder
+@Builder(toBuilder = true)
 @EqualsAndHashCode
 @NoArgsConstructor
 @AllArgsConstructor
@@ -16,11 +21,14 @@ import java.math.BigDecimal;
 public class ItemInCart {
     @Id
     private Long id;
+    @Transient
     private String title;
     private int count;
+    @Transient
     private BigDecimal price;
+    @Transient
     private String description;
-    @Column("image_path")
+    @Transient
     private String imagePath;
     private String login;
     @Column("item_id")
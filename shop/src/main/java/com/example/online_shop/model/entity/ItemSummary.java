@@ -0,0 +1,23 @@
+package com.example.online_shop.model.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+/**
+ * Товар без картинки - для списков и карточки. Байты картинки читаются только эндпоинтом картинки.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ItemSummary {
+    private Long id;
+    private String title;
+    private String description;
+    private BigDecimal price;
+    private String imageHash;
+}
@@ -1,5 +1,6 @@
 package com.example.online_shop.model.entity;
 
+import com.example.online_shop.enumiration.EOrderStatus;
 import lombok.*;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.relational.core.mapping.Column;
@@ -18,5 +19,8 @@ public class Order {
     @Column("total_sum")
     private BigDecimal totalSum;
     private String login;
+    private EOrderStatus status;
+    @Column("idempotency_key")
+    private String idempotencyKey;
 
 }
@@ -0,0 +1,7 @@
+package com.example.online_shop.repository;
+
+import com.example.online_shop.model.entity.CartSummary;
+import org.springframework.data.r2dbc.repository.R2dbcRepository;
+
+public interface CartSummaryRepository extends R2dbcRepository<CartSummary, String> {
+}
@@ -1,11 +1,36 @@
 package com.example.online_shop.repository;
 
 import com.example.online_shop.model.entity.ItemInCart;
+import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.r2dbc.repository.R2dbcRepository;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 public interface ItemInCartRepository extends R2dbcRepository<ItemInCart, Long> {
+    /**
+     * Позиционные параметры: $1 login, $2 item_id, $3 delta.
+     * Тот же текст выполняется пачкой привязок в ItemInCartService.applyDeltas.
+     * <p>
+     * По знаку delta выполняется ровно одна запись в строку - вставка или UPDATE, - и она перечитывает последнюю
+     * версию строки, поэтому одновременные изменения не теряются. Строку с нулевым количеством удаляет
+     * триггер items_in_cart_delete_empty (changelog-013).
+     */
+    String APPLY_DELTA = """
+            with upserted as (
+                insert into items_in_cart (count, login, item_id)
+                select $3, $1, $2
+                where $3 > 0
+                on conflict (login, item_id) do update set count = items_in_cart.count + excluded.count
+                returning count
+            ), updated as (
+                update items_in_cart set count = count + $3
+                where $3 < 0 and login = $1 and item_id = $2
+                returning count
+            )
+            select greatest(count, 0) as count from upserted
+            union all select greatest(count, 0) from updated
+            """;
+
     Mono<Void> deleteByLoginIgnoreCase(String login);
 
     Mono<Void> deleteByItemIdAndLoginIgnoreCase(Long itemId, String login);
@@ -13,4 +38,13 @@ public interface ItemInCartRepository extends R2dbcRepository<ItemInCart, Long>
     Mono<ItemInCart> getByItemIdAndLoginIgnoreCase(Long itemId, String Login);
 
     Flux<ItemInCart> getByLoginIgnoreCase(String login);
+
+    /**
+     * Изменение количества одним запросом: строка создаётся при положительном delta, удаляется, когда
+     * количество доходит до нуля, иначе количество меняется атомарно (уникальность по login, item_id).
+     *
+     * @return количество после изменения, 0 - строка удалена, пусто - уменьшение отсутствующего товара
+     */
+    @Query(APPLY_DELTA)
+    Mono<Integer> applyDelta(String login, Long itemId, int delta);
 }
@@ -4,6 +4,25 @@ import com.example.online_shop.model.entity.ItemInOrder;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import reactor.core.publisher.Flux;
 
+import java.util.Collection;
+
 public interface ItemInOrderRepository extends ReactiveCrudRepository<ItemInOrder, Long> {
+    /**
+     * Все строки заказа одним запросом: позиционные параметры $1 order_id, затем массивы по строкам
+     * $2 item_id, $3 title, $4 description, $5 price, $6 count, $7 image_path.
+     * id выделяются последовательностью сразу на весь заказ и возвращаются в порядке строк.
+     * Выполняется в ItemInOrderService.saveAll.
+     */
+    String INSERT_ALL = """
+            insert into items_in_order (order_id, item_id, title, description, price, count, image_path)
+            select $1, line.item_id, line.title, line.description, line.price, line.count, line.image_path
+            from unnest($2::bigint[], $3::varchar[], $4::text[], $5::numeric[], $6::int[], $7::varchar[])
+                 with ordinality as line(item_id, title, description, price, count, image_path, n)
+            order by line.n
+            returning id
+            """;
+
     Flux<ItemInOrder> getItemInOrderByOrderId(Long orderId);
+
+    Flux<ItemInOrder> findByOrderIdInOrderById(Collection<Long> orderIds);
 }
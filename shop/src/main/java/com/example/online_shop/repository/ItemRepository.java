@@ -1,11 +1,110 @@
 package com.example.online_shop.repository;
 
 import com.example.online_shop.model.entity.Item;
-import org.springframework.data.domain.Pageable;
+import com.example.online_shop.model.entity.ItemSummary;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.r2dbc.repository.R2dbcRepository;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
 
 public interface ItemRepository extends R2dbcRepository<Item, Long> {
-    Flux<Item> getItemsByTitleLike(String search, Pageable page);
-    Flux<Item> findBy(Pageable pageable);
+    @Query("""
+            select id, title, left(description, :descriptionLength) as description, price, image_hash
+            from items order by id limit :limit offset :offset
+            """)
+    Flux<ItemSummary> findPageOrderById(int descriptionLength, int limit, long offset);
+
+    @Query("""
+            select id, title, left(description, :descriptionLength) as description, price, image_hash
+            from items order by title, id limit :limit offset :offset
+            """)
+    Flux<ItemSummary> findPageOrderByTitle(int descriptionLength, int limit, long offset);
+
+    @Query("""
+            select id, title, left(description, :descriptionLength) as description, price, image_hash
+            from items order by price, id limit :limit offset :offset
+            """)
+    Flux<ItemSummary> findPageOrderByPrice(int descriptionLength, int limit, long offset);
+
+    /**
+     * Полнотекстовый поиск (russian + simple) по названию и описанию с допуском опечаток в названии (pg_trgm).
+     * Без сортировки результаты упорядочены по релевантности.
+     */
+    @Query("""
+            select i.id, i.title, left(i.description, :descriptionLength) as description, i.price, i.image_hash
+            from items i
+            cross join lateral (select websearch_to_tsquery('russian', :search)
+                                       || websearch_to_tsquery('simple', :search) as q) query
+            where i.search_vector @@ query.q or :search <% i.title
+            order by case when :sort = 'ALPHA' then i.title end,
+                     case when :sort = 'PRICE' then i.price end,
+                     ts_rank(i.search_vector, query.q) + word_similarity(:search, i.title) desc,
+                     i.id
+            limit :limit offset :offset
+            """)
+    Flux<ItemSummary> searchPage(String search, String sort, int descriptionLength, int limit, long offset);
+
+    @Query("""
+            select id, title, left(description, :descriptionLength) as description, price, image_hash
+            from items where id > :lastId order by id limit :limit
+            """)
+    Flux<ItemSummary> findPageAfterId(Long lastId, int descriptionLength, int limit);
+
+    @Query("""
+            select id, title, left(description, :descriptionLength) as description, price, image_hash
+            from items where (title, id) > (:lastTitle, :lastId) order by title, id limit :limit
+            """)
+    Flux<ItemSummary> findPageAfterTitle(String lastTitle, Long lastId, int descriptionLength, int limit);
+
+    @Query("""
+            select id, title, left(description, :descriptionLength) as description, price, image_hash
+            from items where (price, id) > (:lastPrice, :lastId) order by price, id limit :limit
+            """)
+    Flux<ItemSummary> findPageAfterPrice(BigDecimal lastPrice, Long lastId, int descriptionLength, int limit);
+
+    /**
+     * Товары перед курсором в обратном порядке - тот же индекс, пройденный назад.
+     */
+    @Query("""
+            select id, title, left(description, :descriptionLength) as description, price, image_hash
+            from items where id < :firstId order by id desc limit :limit
+            """)
+    Flux<ItemSummary> findPageBeforeId(Long firstId, int descriptionLength, int limit);
+
+    @Query("""
+            select id, title, left(description, :descriptionLength) as description, price, image_hash
+            from items where (title, id) < (:firstTitle, :firstId) order by title desc, id desc limit :limit
+            """)
+    Flux<ItemSummary> findPageBeforeTitle(String firstTitle, Long firstId, int descriptionLength, int limit);
+
+    @Query("""
+            select id, title, left(description, :descriptionLength) as description, price, image_hash
+            from items where (price, id) < (:firstPrice, :firstId) order by price desc, id desc limit :limit
+            """)
+    Flux<ItemSummary> findPageBeforePrice(BigDecimal firstPrice, Long firstId, int descriptionLength, int limit);
+
+    @Query("select id, title, description, price, image_hash from items where id = :id")
+    Mono<ItemSummary> findSummaryById(Long id);
+
+    @Query("select image from items where id = :id and image is not null")
+    Mono<byte[]> findImageById(Long id);
+
+    @Query("select id from items")
+    Flux<Long> findAllIds();
+
+    @Query("select id from items where image is not null order by id limit :limit")
+    Flux<Long> findIdsWithImageInTable(int limit);
+
+    @Modifying
+    @Query("update items set image_hash = :imageHash, image = null where id = :id")
+    Mono<Integer> moveImageToStore(Long id, String imageHash);
+
+    /**
+     * Оценка числа товаров из статистики планировщика - без COUNT(*). Пусто, если таблица ещё не анализировалась.
+     */
+    @Query("select reltuples::bigint from pg_class where oid = 'items'::regclass and reltuples >= 0")
+    Mono<Long> estimateCount();
 }
@@ -1,7 +1,44 @@
 package com.example.online_shop.repository;
 
+import com.example.online_shop.enumiration.EOrderStatus;
 import com.example.online_shop.model.entity.Order;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 public interface OrderRepository extends ReactiveCrudRepository<Order, Long> {
+    /**
+     * Первая страница оплаченных заказов пользователя, новые сверху - по индексу (login, id).
+     */
+    @Query("""
+            select id, total_sum, login, status, idempotency_key from orders
+            where login = :login and status = 'PAID'
+            order by id desc limit :limit
+            """)
+    Flux<Order> findPageByLogin(String login, int limit);
+
+    /**
+     * Страница оплаченных заказов пользователя, более старых, чем beforeId.
+     */
+    @Query("""
+            select id, total_sum, login, status, idempotency_key from orders
+            where login = :login and status = 'PAID' and id < :beforeId
+            order by id desc limit :limit
+            """)
+    Flux<Order> findPageByLoginBefore(String login, long beforeId, int limit);
+
+    Mono<Order> findByIdAndLoginAndStatus(Long id, String login, EOrderStatus status);
+
+    Mono<Order> findByLoginAndIdempotencyKey(String login, String idempotencyKey);
+
+    /**
+     * Завершение оформления: меняется только заказ, ещё ожидающий оплаты.
+     *
+     * @return 1, если статус изменён
+     */
+    @Modifying
+    @Query("update orders set status = :status where id = :id and status = 'PENDING'")
+    Mono<Integer> completePending(Long id, String status);
 }
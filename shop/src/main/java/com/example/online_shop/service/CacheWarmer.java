@@ -0,0 +1,70 @@
+package com.example.online_shop.service;
+
+import com.example.online_shop.cache.CacheSnapshotStore;
+import com.example.online_shop.cache.HotItemsTracker;
+import com.example.online_shop.enumiration.ESort;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+
+/**
+ * Прогрев кешей при старте: снимок L1 с диска (если включён), первые страницы каталога для каждой сортировки
+ * и самые просматриваемые товары. Выполняется до ApplicationReadyEvent, поэтому readiness
+ * (/actuator/health/readiness) переходит в ACCEPTING_TRAFFIC только после прогрева. Ошибки и превышение
+ * timeout не мешают старту: холодные записи загрузятся по запросам.
+ */
+@Component
+@Slf4j
+public class CacheWarmer implements ApplicationRunner {
+    private final ItemInCacheService cacheService;
+    private final HotItemsTracker hotItemsTracker;
+    private final ObjectProvider<CacheSnapshotStore> snapshotStore;
+    private final boolean enabled;
+    private final int pages;
+    private final int pageSize;
+    private final int hotItems;
+    private final Duration timeout;
+
+    public CacheWarmer(ItemInCacheService cacheService,
+                       HotItemsTracker hotItemsTracker,
+                       ObjectProvider<CacheSnapshotStore> snapshotStore,
+                       @Value("${shop.cache.warm-up.enabled:true}") boolean enabled,
+                       @Value("${shop.cache.warm-up.pages:3}") int pages,
+                       @Value("${shop.cache.warm-up.page-size:10}") int pageSize,
+                       @Value("${shop.cache.warm-up.hot-items:100}") int hotItems,
+                       @Value("${shop.cache.warm-up.timeout:60s}") Duration timeout) {
+        this.cacheService = cacheService;
+        this.hotItemsTracker = hotItemsTracker;
+        this.snapshotStore = snapshotStore;
+        this.enabled = enabled;
+        this.pages = pages;
+        this.pageSize = pageSize;
+        this.hotItems = hotItems;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        snapshotStore.ifAvailable(CacheSnapshotStore::restore);
+        if (!enabled)
+            return;
+        long start = System.currentTimeMillis();
+        try {
+            Flux.fromArray(ESort.values())
+                    .flatMap(sort -> Flux.range(1, pages).concatMap(page -> cacheService.preloadItems(sort, page, pageSize)))
+                    .thenMany(hotItemsTracker.top(hotItems))
+                    .flatMap(cacheService::preloadItem, 8)
+                    .then()
+                    .block(timeout);
+            log.info("Cache warm-up finished in {} ms", System.currentTimeMillis() - start);
+        } catch (RuntimeException e) {
+            log.warn("Cache warm-up interrupted after {} ms: {}", System.currentTimeMillis() - start, e.getMessage());
+        }
+    }
+}
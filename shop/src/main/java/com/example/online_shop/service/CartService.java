@@ -3,15 +3,21 @@ package com.example.online_shop.service;
 import com.example.online_shop.enumiration.ECartAction;
 import com.example.online_shop.mapper.ItemInCartMapper;
 import com.example.online_shop.model.dto.CartDto;
+import com.example.online_shop.model.dto.CartOperationDto;
+import com.example.online_shop.model.dto.CartSummaryDto;
 import com.example.online_shop.model.dto.ItemDto;
-import com.example.online_shop.model.entity.ItemInCart;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
@@ -19,16 +25,44 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 @Slf4j
 public class CartService {
-    private final ItemInCartService itemInCartService;
+    /**
+     * Префикс ключа владельца корзины гостя: "guest:{id}", id хранится в атрибуте сессии GUEST_CART_ATTRIBUTE.
+     * Остальные ключи - логины пользователей.
+     */
+    public static final String GUEST_PREFIX = "guest:";
+    public static final String GUEST_CART_ATTRIBUTE = "guestCartId";
+    static final int MAX_DELTA = 1000; // ограничение приращения одной операции - защита count от переполнения
+
+    private final CartStore cartStore;
+    private final GuestCartStore guestCartStore;
     private final ItemInCartMapper itemInCartMapper;
+    private final ItemInCacheService cacheService;
+
+    @Value("${shop.cart.bulk.max-operations:100}")
+    int maxOperations;
 
     public Mono<Void> clearCart(String login) {
-        return itemInCartService.deleteByLogin(login);
+        return storeFor(login).clear(login);
+    }
+
+    /**
+     * Удаление оформленных строк: их количества вычитаются одним пакетным изменением (CartStore.applyAll),
+     * поэтому товары, добавленные в корзину во время оплаты, в ней остаются.
+     *
+     * @param ordered строки снимка корзины, по которому оформлен заказ
+     */
+    public Mono<Void> removeOrdered(String login, Collection<ItemDto> ordered) {
+        log.info("Start removeOrdered: login={}, items={}", login, ordered.size());
+        return storeFor(login).applyAll(ordered.stream()
+                .map(item -> item.toBuilder().count(-item.getCount()).build())
+                .toList(), login);
     }
 
     public Mono<CartDto> getCart(String login) {
         log.info("Start getCart: login={}", login);
-        return itemInCartService.getByLogin(login)
+        if (login == null || login.isBlank()) // гость без корзины - не ходим в хранилище
+            return Mono.just(CartDto.builder().login("").build());
+        return storeFor(login).getByLogin(login)
                 .log()
                 .map(itemsInCartList -> CartDto.builder()
                         .items(itemsInCartList.stream()
@@ -45,32 +79,81 @@ public class CartService {
 
     public Mono<Integer> getItemCountInCart(Long itemId, String login) { // СЧИТАЕТ КОЛИЧЕСТВО ТОВАРА В КОРЗИНЕ ПО АЙДИ
         return login == null || login.isBlank() ? Mono.just(0) :
-                itemInCartService.getByItemIdAndLogin(itemId, login).log()
-                        .map(ItemInCart::getCount).log();
+                storeFor(login).getCount(itemId, login).log();
+    }
+
+    public Mono<Map<Long, Integer>> getItemCountsInCart(String login) { // КОЛИЧЕСТВО КАЖДОГО ТОВАРА В КОРЗИНЕ ОДНИМ ЗАПРОСОМ
+        return login == null || login.isBlank() ? Mono.just(Map.of()) :
+                storeFor(login).getCounts(login); // без полей каталога - только количества
     }
 
     public Mono<Map<Long, ItemDto>> getItemsInCart(String login) {
         return getCart(login).map(CartDto::getItems);
     }
 
-    public Mono<ItemDto> refresh(ItemInCart itemDto, String action, String login) {
-        log.info("Start refresh: itemDto={}, action={}, login={}", itemDto, action, login);
-        switch (ECartAction.valueOf(action.toUpperCase())) {
-            case PLUS -> itemDto.setCount(itemDto.getCount() + 1);
-            case MINUS -> {
-                if (itemDto.getCount() >= 1) itemDto.setCount(itemDto.getCount() - 1);
-            }
-            case DELETE -> itemDto.setCount(0);
+    public Mono<ItemDto> refresh(ItemDto item, String action, String login) {
+        log.info("Start refresh: itemId={}, action={}, login={}", item.getId(), action, login);
+        return storeFor(login).change(item, ECartAction.valueOf(action.toUpperCase()), login)
+                .map(count -> item.toBuilder().count(count).build());
+    }
+
+    /**
+     * Пакетное изменение корзины. Операции над одним товаром складываются, нулевые отбрасываются.
+     * Неизвестный товар или недопустимая операция отклоняют весь пакет (IllegalArgumentException).
+     *
+     * @return сводка корзины после изменения
+     */
+    public Mono<CartSummaryDto> applyAll(List<CartOperationDto> operations, String login) {
+        log.info("Start applyAll: operations={}, login={}", operations.size(), login);
+        if (operations.size() > maxOperations)
+            return Mono.error(new IllegalArgumentException("Too many operations: " + operations.size()));
+        Map<Long, Integer> deltas = new LinkedHashMap<>();
+        for (CartOperationDto operation : operations) {
+            if (operation.getItemId() == null || Math.abs(operation.getDelta()) > MAX_DELTA)
+                return Mono.error(new IllegalArgumentException("Invalid operation: " + operation));
+            deltas.merge(operation.getItemId(), operation.getDelta(), Integer::sum);
         }
-        if (itemDto.getCount() == 0)
-            return itemInCartService.removeItemFromCart(itemDto.getItemId(), login)
-                    .then(Mono.defer(() -> Mono.just(itemDto)
-                            .map(itemInCartMapper::toItemDto)
-                            .map(item -> {
-                                item.setCount(0);
-                                return item;
-                            })));
-        return itemInCartService.changeItemCountInCart(itemDto, action, login)
-                .map(itemInCartMapper::toItemDto);
+        deltas.values().removeIf(delta -> delta == 0);
+        return Flux.fromIterable(deltas.entrySet())
+                .concatMap(entry -> cacheService.getItemDtoById(entry.getKey())
+                        .switchIfEmpty(Mono.error(() -> new IllegalArgumentException("Unknown item: " + entry.getKey())))
+                        .map(item -> item.toBuilder().count(entry.getValue()).build()))
+                .collectList()
+                .flatMap(items -> storeFor(login).applyAll(items, login))
+                .then(getSummary(login));
+    }
+
+    /**
+     * Сводка корзины без чтения её строк - для значка корзины и проверки достаточности средств.
+     */
+    public Mono<CartSummaryDto> getSummary(String login) {
+        return login == null || login.isBlank() ? Mono.just(CartSummaryDto.empty()) :
+                storeFor(login).getSummary(login);
+    }
+
+    /**
+     * Перенос корзины гостя в корзину пользователя при входе: количества складываются одним пакетным
+     * изменением (CartStore.applyAll), после чего корзина гостя удаляется. Перенос завершён, как только
+     * изменение записано: ошибка удаления корзины гостя не возвращается - иначе её перенесли бы повторно,
+     * а сама она истечёт по TTL.
+     */
+    public Mono<Void> mergeGuestCart(String guest, String login) {
+        log.info("Start mergeGuestCart: guest={}, login={}", guest, login);
+        return guestCartStore.getByLogin(guest)
+                .map(rows -> rows.stream().map(itemInCartMapper::toItemDto).toList())
+                .flatMap(items -> cartStore.applyAll(items, login))
+                .then(Mono.defer(() -> guestCartStore.clear(guest))
+                        .onErrorResume(e -> {
+                            log.warn("Cannot clear merged guest cart {}: {}", guest, e.getMessage());
+                            return Mono.empty();
+                        }));
+    }
+
+    public static boolean isGuest(String owner) {
+        return owner != null && owner.regionMatches(true, 0, GUEST_PREFIX, 0, GUEST_PREFIX.length());
+    }
+
+    private CartStore storeFor(String owner) {
+        return isGuest(owner) ? guestCartStore : cartStore;
     }
 }
@@ -0,0 +1,53 @@
+package com.example.online_shop.service;
+
+import com.example.online_shop.enumiration.ECartAction;
+import com.example.online_shop.model.dto.CartSummaryDto;
+import com.example.online_shop.model.dto.ItemDto;
+import com.example.online_shop.model.entity.ItemInCart;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Хранилище корзин. Реализация выбирается свойством shop.cart.store: db (по умолчанию) - строки items_in_cart,
+ * redis - хеш на логин с отложенной записью в items_in_cart.
+ */
+public interface CartStore {
+    /**
+     * Актуальное содержимое корзины - по нему оформляется заказ.
+     */
+    Mono<List<ItemInCart>> getByLogin(String login);
+
+    /**
+     * Количество каждого товара корзины без полей каталога - для отметок на страницах каталога.
+     *
+     * @return id товара - количество
+     */
+    Mono<Map<Long, Integer>> getCounts(String login);
+
+    /**
+     * @return количество товара в корзине, 0 - если товара нет
+     */
+    Mono<Integer> getCount(Long itemId, String login);
+
+    /**
+     * Сводка корзины (число позиций, количество, стоимость) - ведётся при каждом изменении, чтение не
+     * перебирает строки корзины.
+     */
+    Mono<CartSummaryDto> getSummary(String login);
+
+    /**
+     * @return количество товара после изменения, 0 - товар удалён из корзины
+     */
+    Mono<Integer> change(ItemDto item, ECartAction action, String login);
+
+    /**
+     * Применяет все изменения атомарно: либо все, либо ни одного.
+     *
+     * @param items разные товары, count каждого - приращение количества (ненулевое)
+     */
+    Mono<Void> applyAll(List<ItemDto> items, String login);
+
+    Mono<Void> clear(String login);
+}
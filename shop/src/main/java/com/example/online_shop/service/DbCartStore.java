@@ -0,0 +1,65 @@
+package com.example.online_shop.service;
+
+import com.example.online_shop.enumiration.ECartAction;
+import com.example.online_shop.model.dto.CartSummaryDto;
+import com.example.online_shop.model.dto.ItemDto;
+import com.example.online_shop.model.entity.ItemInCart;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Корзина в строках items_in_cart. Изменение количества - один атомарный запрос (ItemInCartRepository.applyDelta),
+ * сводку корзины в cart_summaries пересчитывает триггер в той же транзакции.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+@ConditionalOnProperty(prefix = "shop.cart", name = "store", havingValue = "db", matchIfMissing = true)
+public class DbCartStore implements CartStore {
+    private final ItemInCartService itemInCartService;
+
+    @Override
+    public Mono<List<ItemInCart>> getByLogin(String login) {
+        return itemInCartService.getByLogin(login);
+    }
+
+    @Override
+    public Mono<Map<Long, Integer>> getCounts(String login) {
+        return itemInCartService.getCounts(login);
+    }
+
+    @Override
+    public Mono<Integer> getCount(Long itemId, String login) {
+        return itemInCartService.getCountByItemIdAndLogin(itemId, login).defaultIfEmpty(0);
+    }
+
+    @Override
+    public Mono<CartSummaryDto> getSummary(String login) {
+        return itemInCartService.getSummary(login);
+    }
+
+    @Override
+    public Mono<Integer> change(ItemDto item, ECartAction action, String login) {
+        return switch (action) {
+            case PLUS -> itemInCartService.applyDelta(item.getId(), 1, login);
+            case MINUS -> itemInCartService.applyDelta(item.getId(), -1, login);
+            case DELETE -> itemInCartService.removeItemFromCart(item.getId(), login).thenReturn(0);
+        };
+    }
+
+    @Override
+    public Mono<Void> applyAll(List<ItemDto> items, String login) {
+        return itemInCartService.applyDeltas(items, login);
+    }
+
+    @Override
+    public Mono<Void> clear(String login) {
+        return itemInCartService.deleteByLogin(login);
+    }
+}
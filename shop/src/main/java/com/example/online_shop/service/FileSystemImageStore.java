@@ -0,0 +1,143 @@
+package com.example.online_shop.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.regex.Pattern;
+
+/**
+ * Картинки в локальном каталоге: {root}/{первые 2 символа hash}/{hash}, уменьшенные копии - {hash}-w{width}.jpg.
+ * Расширение нужно, чтобы копия отдавалась с Content-Type image/jpeg.
+ * Отдаются как FileSystemResource - Reactor Netty пишет такой ресурс в сокет через sendfile без копирования в heap.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(prefix = "shop.image.store", name = "type", havingValue = "fs", matchIfMissing = true)
+public class FileSystemImageStore implements ImageStore {
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+
+    private final Path root;
+
+    public FileSystemImageStore(@Value("${shop.image.store.path:image-store}") String root) {
+        this.root = Path.of(root).toAbsolutePath();
+    }
+
+    @Override
+    public Mono<String> save(Flux<DataBuffer> content) {
+        MessageDigest digest = sha256();
+        return Mono.fromCallable(() -> Files.createTempFile(Files.createDirectories(root), "upload-", ".tmp"))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(tempFile -> DataBufferUtils.write(content.doOnNext(buffer -> update(digest, buffer)), tempFile)
+                        .then(Mono.fromCallable(() -> moveToStore(tempFile, HexFormat.of().formatHex(digest.digest())))
+                                .subscribeOn(Schedulers.boundedElastic()))
+                        .doOnError(e -> deleteQuietly(tempFile))
+                        .doOnCancel(() -> deleteQuietly(tempFile)));
+    }
+
+    @Override
+    public Mono<Resource> get(String hash) {
+        if (hash == null || !HASH.matcher(hash).matches())
+            return Mono.empty();
+        return Mono.fromCallable(() -> pathOf(hash))
+                .subscribeOn(Schedulers.boundedElastic())
+                .filter(Files::isRegularFile)
+                .map(FileSystemResource::new);
+    }
+
+    @Override
+    public Mono<Void> saveVariant(String hash, int width, byte[] content) {
+        if (!HASH.matcher(hash).matches())
+            return Mono.error(new IllegalArgumentException("Invalid image hash: " + hash));
+        return Mono.fromCallable(() -> {
+                    Path target = variantPathOf(hash, width);
+                    Path tempFile = Files.createTempFile(Files.createDirectories(target.getParent()), "variant-", ".tmp");
+                    try {
+                        Files.write(tempFile, content);
+                        Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    } finally {
+                        deleteQuietly(tempFile);
+                    }
+                    return target;
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .doOnNext(target -> log.debug("Stored image variant hash={}, width={}", hash, width))
+                .then();
+    }
+
+    @Override
+    public Mono<Resource> getVariant(String hash, int width) {
+        if (hash == null || !HASH.matcher(hash).matches())
+            return Mono.empty();
+        return Mono.fromCallable(() -> variantPathOf(hash, width))
+                .subscribeOn(Schedulers.boundedElastic())
+                .filter(Files::isRegularFile)
+                .map(FileSystemResource::new);
+    }
+
+    private String moveToStore(Path tempFile, String hash) throws IOException {
+        Path target = pathOf(hash);
+        Files.createDirectories(target.getParent());
+        try {
+            if (Files.exists(target)) { // такая картинка уже есть
+                Files.delete(tempFile);
+            } else {
+                Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (FileAlreadyExistsException e) {
+            Files.deleteIfExists(tempFile);
+        }
+        log.debug("Stored image hash={}", hash);
+        return hash;
+    }
+
+    private Path pathOf(String hash) {
+        return root.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private Path variantPathOf(String hash, int width) {
+        return root.resolve(hash.substring(0, 2)).resolve(hash + "-w" + width + ".jpg");
+    }
+
+    private static void update(MessageDigest digest, DataBuffer buffer) {
+        try (DataBuffer.ByteBufferIterator iterator = buffer.readableByteBuffers()) {
+            while (iterator.hasNext()) {
+                ByteBuffer byteBuffer = iterator.next();
+                digest.update(byteBuffer);
+            }
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Cannot delete temp file {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.online_shop.service;
+
+import com.example.online_shop.enumiration.ECartAction;
+import com.example.online_shop.model.dto.CartSummaryDto;
+import com.example.online_shop.model.dto.ItemDto;
+import com.example.online_shop.model.entity.ItemInCart;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Fallback;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Корзина гостя - хеш Redis "cart:guest:{id}" со сводкой "cart:guest:{id}:summary", id хранится в сессии.
+ * Живёт только в Redis и истекает через shop.cart.guest.ttl после последнего изменения; при входе
+ * переносится в корзину пользователя (CartService.mergeGuestCart).
+ * <p>
+ * Помечена @Fallback, чтобы не конкурировать с основным хранилищем при внедрении CartStore по типу:
+ * CartService выбирает её явно по ключу владельца.
+ */
+@Service
+@Fallback
+@Slf4j
+public class GuestCartStore implements CartStore {
+    // KEYS[1] - корзина, KEYS[2] - сводка; ARGV: товар, приращение или "del", ttl, цена в копейках
+    private static final RedisScript<Long> CHANGE_SCRIPT = RedisScript.of(RedisCartStore.CART_FUNCTIONS + """
+            local count = change(KEYS[1], KEYS[2], ARGV[1], ARGV[2], ARGV[4])
+            redis.call('EXPIRE', KEYS[1], ARGV[3])
+            redis.call('EXPIRE', KEYS[2], ARGV[3])
+            return count
+            """, Long.class);
+
+    // KEYS - как у CHANGE_SCRIPT; ARGV: ttl, затем тройки товар, приращение, цена в копейках
+    private static final RedisScript<Long> APPLY_SCRIPT = RedisScript.of(RedisCartStore.CART_FUNCTIONS + """
+            for i = 2, #ARGV, 3 do change(KEYS[1], KEYS[2], ARGV[i], ARGV[i + 1], ARGV[i + 2]) end
+            redis.call('EXPIRE', KEYS[1], ARGV[1])
+            redis.call('EXPIRE', KEYS[2], ARGV[1])
+            return 1
+            """, Long.class);
+
+    // KEYS - как у CHANGE_SCRIPT; ARGV: пары товар, текущая цена в копейках или "del"
+    private static final RedisScript<Long> SYNC_SCRIPT = RedisScript.of(RedisCartStore.CART_FUNCTIONS + """
+            for i = 1, #ARGV, 2 do reprice(KEYS[1], KEYS[2], ARGV[i], ARGV[i + 1]) end
+            return 1
+            """, Long.class);
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final ItemInCacheService cacheService;
+    private final Duration ttl;
+
+    public GuestCartStore(ReactiveStringRedisTemplate redisTemplate,
+                          ItemInCacheService cacheService,
+                          @Value("${shop.cart.guest.ttl:7d}") Duration ttl) {
+        this.redisTemplate = redisTemplate;
+        this.cacheService = cacheService;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Сводка приводится к показанным строкам, как в RedisCartStore: текущие цены, без удалённых товаров, -
+     * только если она с ними расходится.
+     *
+     * @param guest ключ владельца "guest:{id}"; названия и цены берутся из кеша каталога
+     */
+    @Override
+    public Mono<List<ItemInCart>> getByLogin(String guest) {
+        return Mono.zip(entries(key(guest)), entries(summaryKey(guest)))
+                .flatMap(hashes -> cacheService.withCatalogFields(hashes.getT1().entrySet().stream()
+                                .map(entry -> ItemInCart.builder()
+                                        .itemId(Long.valueOf(entry.getKey()))
+                                        .count(Integer.parseInt(entry.getValue()))
+                                        .build())
+                                .toList())
+                        .flatMap(rows -> sync(guest, hashes.getT1(), hashes.getT2(), rows).thenReturn(rows)));
+    }
+
+    @Override
+    public Mono<Map<Long, Integer>> getCounts(String guest) {
+        return redisTemplate.<String, String>opsForHash().entries(key(guest))
+                .collectMap(entry -> Long.valueOf(entry.getKey()), entry -> Integer.valueOf(entry.getValue()));
+    }
+
+    @Override
+    public Mono<Integer> getCount(Long itemId, String guest) {
+        return redisTemplate.<String, String>opsForHash().get(key(guest), String.valueOf(itemId))
+                .map(Integer::valueOf)
+                .defaultIfEmpty(0);
+    }
+
+    @Override
+    public Mono<CartSummaryDto> getSummary(String guest) {
+        return redisTemplate.<String, String>opsForHash().multiGet(summaryKey(guest), RedisCartStore.SUMMARY_FIELDS)
+                .map(RedisCartStore::toSummary);
+    }
+
+    @Override
+    public Mono<Integer> change(ItemDto item, ECartAction action, String guest) {
+        String delta = switch (action) {
+            case PLUS -> "1";
+            case MINUS -> "-1";
+            case DELETE -> "del";
+        };
+        return redisTemplate.execute(CHANGE_SCRIPT, List.of(key(guest), summaryKey(guest)),
+                        List.of(String.valueOf(item.getId()), delta, String.valueOf(ttl.toSeconds()),
+                                RedisCartStore.toMinorUnits(item.getPrice())))
+                .next()
+                .map(Long::intValue);
+    }
+
+    @Override
+    public Mono<Void> applyAll(List<ItemDto> items, String guest) {
+        List<String> args = new ArrayList<>();
+        args.add(String.valueOf(ttl.toSeconds()));
+        items.forEach(item -> {
+            args.add(String.valueOf(item.getId()));
+            args.add(String.valueOf(item.getCount()));
+            args.add(RedisCartStore.toMinorUnits(item.getPrice()));
+        });
+        return redisTemplate.execute(APPLY_SCRIPT, List.of(key(guest), summaryKey(guest)), args).then();
+    }
+
+    @Override
+    public Mono<Void> clear(String guest) {
+        return redisTemplate.delete(key(guest), summaryKey(guest)).then();
+    }
+
+    private Mono<Void> sync(String guest, Map<String, String> cart, Map<String, String> summary, List<ItemInCart> rows) {
+        List<String> args = RedisCartStore.syncArgs(cart, summary, rows);
+        if (args.isEmpty())
+            return Mono.empty();
+        return redisTemplate.execute(SYNC_SCRIPT, List.of(key(guest), summaryKey(guest)), args)
+                .then()
+                .onErrorResume(e -> {
+                    log.warn("Cannot sync guest cart summary {}: {}", guest, e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    private Mono<Map<String, String>> entries(String key) {
+        return redisTemplate.<String, String>opsForHash().entries(key)
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue);
+    }
+
+    // Ключ владельца уже содержит префикс "guest:", логин с ним не зарегистрировать (UserService.addUser)
+    private static String key(String guest) {
+        return RedisCartStore.KEY_PREFIX + guest;
+    }
+
+    private static String summaryKey(String guest) {
+        return key(guest) + RedisCartStore.SUMMARY_SUFFIX;
+    }
+}
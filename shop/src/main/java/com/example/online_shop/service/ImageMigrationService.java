@@ -0,0 +1,56 @@
+package com.example.online_shop.service;
+
+import com.example.online_shop.repository.ItemRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Перенос картинок из items.image в ImageStore пачками. Запускается при старте с shop.image.store.migrate=true.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+@ConditionalOnProperty(prefix = "shop.image.store", name = "migrate", havingValue = "true")
+public class ImageMigrationService implements ApplicationRunner {
+    private final ItemRepository itemRepository;
+    private final ImageStore imageStore;
+    private final ImageVariantService imageVariantService;
+
+    @Value("${shop.image.store.migrate-batch-size:50}")
+    int batchSize;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        log.info("Start image migration: batchSize={}", batchSize);
+        Long migrated = migrate().block();
+        log.info("Finish image migration: migrated={}", migrated);
+    }
+
+    public Mono<Long> migrate() {
+        return migrateBatch()
+                .expand(migrated -> migrated == batchSize ? migrateBatch() : Mono.empty())
+                .reduce(0L, Long::sum);
+    }
+
+    private Mono<Long> migrateBatch() {
+        return itemRepository.findIdsWithImageInTable(batchSize)
+                .concatMap(this::migrateImage)
+                .count();
+    }
+
+    private Mono<Integer> migrateImage(Long id) {
+        return itemRepository.findImageById(id)
+                .flatMap(image -> imageStore.save(Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(image))))
+                .flatMap(imageHash -> imageVariantService.createVariants(imageHash).thenReturn(imageHash))
+                .flatMap(imageHash -> itemRepository.moveImageToStore(id, imageHash))
+                .doOnNext(updated -> log.debug("Image moved to store: itemId={}", id));
+    }
+}
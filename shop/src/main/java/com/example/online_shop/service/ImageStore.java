@@ -0,0 +1,35 @@
+package com.example.online_shop.service;
+
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.buffer.DataBuffer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Хранилище картинок товаров с адресацией по содержимому: ключ картинки - её SHA-256,
+ * поэтому одинаковые загрузки хранятся один раз.
+ */
+public interface ImageStore {
+
+    /**
+     * Сохраняет картинку, не собирая её целиком в памяти.
+     *
+     * @return SHA-256 содержимого (hex)
+     */
+    Mono<String> save(Flux<DataBuffer> content);
+
+    /**
+     * @return картинка или пустой Mono, если такого ключа нет
+     */
+    Mono<Resource> get(String hash);
+
+    /**
+     * Сохраняет уменьшенную копию картинки (JPEG) рядом с оригиналом.
+     */
+    Mono<Void> saveVariant(String hash, int width, byte[] content);
+
+    /**
+     * @return уменьшенная копия или пустой Mono, если она ещё не построена
+     */
+    Mono<Resource> getVariant(String hash, int width);
+}
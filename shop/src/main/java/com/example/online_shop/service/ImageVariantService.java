@@ -0,0 +1,145 @@
+package com.example.online_shop.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Уменьшенные копии картинок (миниатюра для плитки каталога и средний размер), которые строятся при загрузке.
+ * Декодирование и масштабирование идут на отдельном ограниченном пуле, чтобы не занимать boundedElastic,
+ * через который работают файловое хранилище и блокирующие вызовы.
+ */
+@Service
+@Slf4j
+public class ImageVariantService implements DisposableBean {
+    private final ImageStore imageStore;
+    private final List<Integer> widths;
+    private final long maxPixels;
+    private final Scheduler scheduler;
+
+    public ImageVariantService(ImageStore imageStore,
+                               @Value("${shop.image.variants.widths:300,800}") List<Integer> widths,
+                               @Value("${shop.image.variants.max-pixels:50000000}") long maxPixels,
+                               @Value("${shop.image.variants.threads:2}") int threads,
+                               @Value("${shop.image.variants.queue:100}") int queue) {
+        this.imageStore = imageStore;
+        this.widths = widths.stream().sorted().toList();
+        this.maxPixels = maxPixels;
+        this.scheduler = Schedulers.newBoundedElastic(threads, queue, "image-variants");
+    }
+
+    /**
+     * Строит недостающие копии. Ошибки только логируются: без копии отдаётся оригинал.
+     */
+    public Mono<Void> createVariants(String hash) {
+        return imageStore.get(hash)
+                .flatMap(original -> Mono.fromCallable(() -> resize(original)).subscribeOn(scheduler))
+                .flatMapIterable(Function.identity())
+                .concatMap(variant -> imageStore.saveVariant(hash, variant.width(), variant.content()))
+                .then()
+                .doOnError(e -> log.warn("Cannot create image variants hash={}: {}", hash, e.getMessage()))
+                .onErrorComplete();
+    }
+
+    /**
+     * @return наименьшая ширина копии, не меньше запрошенной, или null - отдавать оригинал
+     */
+    public Integer resolveWidth(Integer requested) {
+        if (requested == null || requested <= 0)
+            return null;
+        return widths.stream().filter(width -> width >= requested).findFirst().orElse(null);
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.dispose();
+    }
+
+    private List<Variant> resize(Resource original) throws IOException {
+        BufferedImage image = read(original);
+        if (image == null)
+            return List.of();
+        return widths.stream()
+                .filter(width -> width < image.getWidth())
+                .map(width -> new Variant(width, toJpeg(scale(image, width))))
+                .toList();
+    }
+
+    /**
+     * Читает картинку с прореживанием строк и столбцов: для миниатюр не нужен полный размер,
+     * а память под декодированную картинку падает квадратично.
+     */
+    private BufferedImage read(Resource original) throws IOException {
+        try (InputStream input = original.getInputStream();
+             ImageInputStream stream = ImageIO.createImageInputStream(input)) {
+            Iterator<ImageReader> readers = stream == null ? null : ImageIO.getImageReaders(stream);
+            if (readers == null || !readers.hasNext()) {
+                log.info("Unsupported image format, variants skipped");
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > maxPixels) {
+                    log.info("Image is too large for variants: {}x{}", width, height);
+                    return null;
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, width / (2 * widths.getLast()));
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage image, int width) {
+        int height = Math.max(1, (int) ((long) image.getHeight() * width / image.getWidth()));
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setColor(Color.WHITE); // прозрачный фон PNG в JPEG
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    private static byte[] toJpeg(BufferedImage image) {
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            ImageIO.write(image, "jpg", output);
+            return output.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record Variant(int width, byte[] content) {
+    }
+}
@@ -1,58 +1,189 @@
 package com.example.online_shop.service;
 
+import com.example.online_shop.cache.ItemIdFilter;
+import com.example.online_shop.cache.ReactiveCache;
 import com.example.online_shop.enumiration.ESort;
+import com.example.online_shop.mapper.ItemCursorMapper;
+import com.example.online_shop.mapper.ItemInCartMapper;
 import com.example.online_shop.mapper.ItemMapper;
+import com.example.online_shop.model.dto.ItemCursorDto;
 import com.example.online_shop.model.dto.ItemDto;
-import com.example.online_shop.model.entity.Item;
+import com.example.online_shop.model.entity.ItemInCart;
+import com.example.online_shop.model.entity.ItemSummary;
 import com.example.online_shop.repository.ItemRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.cache.annotation.Cacheable;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class ItemInCacheService {
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
     private final ItemRepository itemRepository;
     private final ItemMapper itemMapper;
+    private final ItemCursorMapper itemCursorMapper;
+    private final ItemInCartMapper itemInCartMapper;
+    private final ReactiveCache<List<ItemDto>> itemsCache;
+    private final ReactiveCache<ItemDto> itemCache;
+    private final ReactiveCache<byte[]> pictureCache;
+    private final ReactiveCache<Long> itemsCountCache;
+    private final ItemIdFilter itemIdFilter;
 
     @Value("${shop.items.row:5}")
     int itemsRowCount;
 
-    @Cacheable(cacheNames = "items", key = "{#search, #sort, #pageNumber, #pageSize}")
+    @Value("${shop.items.description-length:300}")
+    int descriptionLength; // длина описания в списке товаров
+
+    /**
+     * Страница каталога вместе с первым товаром следующей страницы (pageSize + 1 строк),
+     * чтобы наличие следующей страницы определялось тем же запросом.
+     * Поиск не зависит от регистра и лишних пробелов, поэтому такие варианты строки дают один ключ кеша.
+     */
     public Mono<List<ItemDto>> getItems(String search, String sort, int pageNumber, int pageSize) {
+        String normalizedSearch = normalizeSearch(search);
+        String normalizedSort = ESort.valueOf(sort.toUpperCase()).name();
+        return itemsCache.get(itemsKey(normalizedSearch, normalizedSort, pageNumber, pageSize),
+                () -> findItems(normalizedSearch, normalizedSort, pageNumber, pageSize));
+    }
+
+    /**
+     * Прогрев страницы каталога без поиска - в обход фильтра частоты.
+     */
+    public Mono<Void> preloadItems(ESort sort, int pageNumber, int pageSize) {
+        return itemsCache.preload(itemsKey("", sort.name(), pageNumber, pageSize),
+                () -> findItems("", sort.name(), pageNumber, pageSize)).then();
+    }
+
+    /**
+     * Прогрев товара и, если картинка ещё в таблице, её байтов.
+     */
+    public Mono<Void> preloadItem(Long id) {
+        return itemCache.preload(String.valueOf(id), () -> itemRepository.findSummaryById(id).map(itemMapper::toDto))
+                .filter(item -> item.getImageHash() == null)
+                .flatMap(item -> pictureCache.preload(String.valueOf(id), () -> itemRepository.findImageById(id)))
+                .then();
+    }
+
+    private static String itemsKey(String search, String sort, int pageNumber, int pageSize) {
+        return String.valueOf(List.of(search, sort, pageNumber, pageSize));
+    }
+
+    static String normalizeSearch(String search) {
+        return search == null ? "" : WHITESPACE.matcher(search.strip()).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+
+    private Mono<List<ItemDto>> findItems(String search, String sort, int pageNumber, int pageSize) {
         log.debug("Start getItems: pageNumber={}, pageSize={}, sort={}, search={}", pageNumber, pageSize, sort, search);
-        Pageable page = switch (ESort.valueOf(sort.toUpperCase())) {
-            case NO -> PageRequest.of(pageNumber - 1, pageSize);
-            case ALPHA -> PageRequest.of(pageNumber - 1, pageSize, Sort.by(Sort.Direction.ASC, "title"));
-            case PRICE -> PageRequest.of(pageNumber - 1, pageSize, Sort.by(Sort.Direction.ASC, "price"));
-        };
-        Flux<Item> items;
+        ESort eSort = ESort.valueOf(sort.toUpperCase());
+        int limit = pageSize + 1;
+        long offset = (long) (pageNumber - 1) * pageSize;
+        Flux<ItemSummary> items;
         if (search != null && !search.isBlank())
-            items = itemRepository.getItemsByTitleLike(search, page);
+            items = itemRepository.searchPage(search.trim(), eSort.name(), descriptionLength, limit, offset);
         else
-            items = itemRepository.findBy(page);
+            items = switch (eSort) {
+                case NO -> itemRepository.findPageOrderById(descriptionLength, limit, offset);
+                case ALPHA -> itemRepository.findPageOrderByTitle(descriptionLength, limit, offset);
+                case PRICE -> itemRepository.findPageOrderByPrice(descriptionLength, limit, offset);
+            };
+        return itemMapper.toListDto(items).log().collectList();
+    }
+
+    /**
+     * Страница каталога после курсора: поиск по индексу (title, id) / (price, id) / id,
+     * поэтому стоимость не зависит от глубины страницы. Как и getItems, возвращает pageSize + 1 строк.
+     * Неверный курсор - первая страница.
+     */
+    public Mono<List<ItemDto>> getItemsAfter(String sort, String cursor, int pageSize) {
+        return itemsCache.get(String.valueOf(List.of("after", ESort.valueOf(sort.toUpperCase()).name(), cursor, pageSize)),
+                () -> findItemsAfter(sort, cursor, pageSize));
+    }
+
+    private Mono<List<ItemDto>> findItemsAfter(String sort, String cursor, int pageSize) {
+        log.debug("Start getItemsAfter: cursor={}, pageSize={}, sort={}", cursor, pageSize, sort);
+        ESort eSort = ESort.valueOf(sort.toUpperCase());
+        ItemCursorDto after = itemCursorMapper.toCursorDto(cursor, eSort);
+        if (after == null)
+            return getItems(null, sort, 1, pageSize);
+        Flux<ItemSummary> items = switch (eSort) {
+            case NO -> itemRepository.findPageAfterId(after.getId(), descriptionLength, pageSize + 1);
+            case ALPHA -> itemRepository.findPageAfterTitle(after.getTitle(), after.getId(), descriptionLength, pageSize + 1);
+            case PRICE -> itemRepository.findPageAfterPrice(after.getPrice(), after.getId(), descriptionLength, pageSize + 1);
+        };
         return itemMapper.toListDto(items).log().collectList();
     }
 
-    @Cacheable(value = "item", key = "#id")
+    /**
+     * Страница каталога перед курсором (листание назад) по тем же индексам, что и getItemsAfter.
+     * Возвращает до pageSize + 1 строк в порядке сортировки: лишняя первая строка - признак предыдущей страницы.
+     * Неверный курсор - пустой список.
+     */
+    public Mono<List<ItemDto>> getItemsBefore(String sort, String cursor, int pageSize) {
+        return itemsCache.get(String.valueOf(List.of("before", ESort.valueOf(sort.toUpperCase()).name(), cursor, pageSize)),
+                () -> findItemsBefore(sort, cursor, pageSize));
+    }
+
+    private Mono<List<ItemDto>> findItemsBefore(String sort, String cursor, int pageSize) {
+        log.debug("Start getItemsBefore: cursor={}, pageSize={}, sort={}", cursor, pageSize, sort);
+        ESort eSort = ESort.valueOf(sort.toUpperCase());
+        ItemCursorDto before = itemCursorMapper.toCursorDto(cursor, eSort);
+        if (before == null)
+            return Mono.just(List.of());
+        Flux<ItemSummary> items = switch (eSort) {
+            case NO -> itemRepository.findPageBeforeId(before.getId(), descriptionLength, pageSize + 1);
+            case ALPHA -> itemRepository.findPageBeforeTitle(before.getTitle(), before.getId(), descriptionLength, pageSize + 1);
+            case PRICE -> itemRepository.findPageBeforePrice(before.getPrice(), before.getId(), descriptionLength, pageSize + 1);
+        };
+        return itemMapper.toListDto(items).collectList().map(List::reversed);
+    }
+
+    /**
+     * Несуществующий id отсекается фильтром без обращения к кешу и БД, либо запоминается в кеше ненадолго.
+     */
     public Mono<ItemDto> getItemDtoById(Long id) {
-        log.debug("Start id={}", id);
-        return itemRepository.findById(id)
-                .map(itemMapper::toDto);
+        if (!itemIdFilter.mightExist(id))
+            return Mono.empty();
+        return itemCache.get(String.valueOf(id), () -> {
+            log.debug("Start id={}", id);
+            return itemRepository.findSummaryById(id)
+                    .map(itemMapper::toDto);
+        });
+    }
+
+    /**
+     * Строки корзины с названием, ценой, описанием и картинкой из кеша каталога, порядок сохраняется.
+     * Товар, которого нет в кеше, перепроверяется в БД в обход кеша и фильтра id: пропускаются только товары,
+     * действительно удалённые из каталога, - хранилище корзины удаляет такие строки вместе со сводкой.
+     */
+    public Mono<List<ItemInCart>> withCatalogFields(List<ItemInCart> rows) {
+        return Flux.fromIterable(rows)
+                .concatMap(row -> getItemDtoById(row.getItemId())
+                        .switchIfEmpty(Mono.defer(() -> itemRepository.findSummaryById(row.getItemId())
+                                .map(itemMapper::toDto)))
+                        .map(item -> itemInCartMapper.toItemInCart(row, item)))
+                .collectList();
+    }
+
+    public Mono<Long> getItemsCountEstimate() {
+        return itemsCountCache.get("all", itemRepository::estimateCount);
     }
 
-    @Cacheable(value = "picture", key = "#id")
+    /**
+     * Ошибка БД не выдаётся за отсутствие картинки - иначе она попала бы в кеш как отсутствующая.
+     */
     public Mono<byte[]> geyImage(Long id) {
-        return itemRepository.findById(id).map(Item::getImage).onErrorComplete();
+        if (!itemIdFilter.mightExist(id))
+            return Mono.empty();
+        return pictureCache.get(String.valueOf(id), () -> itemRepository.findImageById(id));
     }
 }
@@ -1,26 +1,41 @@
 package com.example.online_shop.service;
 
+import com.example.online_shop.cache.ReactiveCache;
+import com.example.online_shop.mapper.ItemInCartMapper;
+import com.example.online_shop.model.dto.CartSummaryDto;
+import com.example.online_shop.model.dto.ItemDto;
 import com.example.online_shop.model.entity.ItemInCart;
+import com.example.online_shop.repository.CartSummaryRepository;
 import com.example.online_shop.repository.ItemInCartRepository;
+import io.r2dbc.spi.Statement;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.cache.annotation.CacheEvict;
-import org.springframework.cache.annotation.Cacheable;
+import org.springframework.r2dbc.core.DatabaseClient;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class ItemInCartService {
     private final ItemInCartRepository itemInCartRepository;
+    private final ReactiveCache<List<ItemInCart>> itemsInCartCache;
+    private final CartSummaryRepository cartSummaryRepository;
+    private final ItemInCartMapper itemInCartMapper;
+    private final ItemInCacheService cacheService;
+    private final DatabaseClient databaseClient;
+    private final TransactionalOperator transactionalOperator;
 
-    @CacheEvict(cacheNames = "itemsInCart", key = "#login") //будет очищен кеш с именем "itemsInCart" по ключу = login.
     public Mono<Void> deleteByLogin(String login) {
         log.info("Start deleteByLogin: login={}", login);
-        return itemInCartRepository.deleteByLoginIgnoreCase(login).then();
+        return itemInCartRepository.deleteByLoginIgnoreCase(login)
+                .then(itemsInCartCache.evict(login)); // будет очищен кеш "itemsInCart" по ключу = login
     }
 
     public Mono<ItemInCart> getByItemIdAndLogin(Long itemId, String login) {
@@ -33,18 +48,69 @@ public class ItemInCartService {
         return itemInCartRepository.getByItemIdAndLoginIgnoreCase(itemId, login).map(ItemInCart::getCount);
     }
 
-    @Cacheable(cacheNames = "itemsInCart", key = "#login")
+    /**
+     * В кеше лежат строки (login, item_id, count), поля для показа подставляются из кеша каталога при чтении,
+     * поэтому правка товара сразу видна в корзине.
+     */
     public Mono<List<ItemInCart>> getByLogin(String login) {
-        return itemInCartRepository.getByLoginIgnoreCase(login).collectList();
+        return itemsInCartCache.get(login, () -> itemInCartRepository.getByLoginIgnoreCase(login).collectList())
+                .flatMap(cacheService::withCatalogFields);
     }
 
-    @CacheEvict(cacheNames = "itemsInCart", key = "#login")
-    public Mono<ItemInCart> changeItemCountInCart(ItemInCart itemInCart, String action, String login) {
-        return Mono.just(itemInCart).flatMap(itemInCartRepository::save);
+    /**
+     * Количества из тех же закешированных строк, без подстановки полей каталога.
+     */
+    public Mono<Map<Long, Integer>> getCounts(String login) {
+        return itemsInCartCache.get(login, () -> itemInCartRepository.getByLoginIgnoreCase(login).collectList())
+                .map(rows -> rows.stream()
+                        .collect(Collectors.toMap(ItemInCart::getItemId, ItemInCart::getCount, Integer::sum)));
+    }
+
+    /**
+     * Сводка корзины из cart_summaries (ведётся триггером) - чтение по первичному ключу без строк корзины.
+     */
+    public Mono<CartSummaryDto> getSummary(String login) {
+        return cartSummaryRepository.findById(login)
+                .map(itemInCartMapper::toCartSummaryDto)
+                .defaultIfEmpty(CartSummaryDto.empty());
+    }
+
+    /**
+     * @return количество товара после изменения, 0 - товара в корзине нет
+     */
+    public Mono<Integer> applyDelta(Long itemId, int delta, String login) {
+        return itemInCartRepository.applyDelta(login, itemId, delta)
+                .defaultIfEmpty(0)
+                .flatMap(count -> itemsInCartCache.evict(login).thenReturn(count));
+    }
+
+    /**
+     * Пакетное изменение корзины: один подготовленный запрос ItemInCartRepository.APPLY_DELTA с привязкой
+     * на каждый товар (Statement.add) уходит в базу за один обмен и выполняется в одной транзакции.
+     *
+     * @param items товары, count каждого - приращение количества
+     */
+    public Mono<Void> applyDeltas(List<ItemDto> items, String login) {
+        log.info("Start applyDeltas: login={}, items={}", login, items.size());
+        if (items.isEmpty()) return Mono.empty();
+        return databaseClient.inConnectionMany(connection -> {
+                    Statement statement = connection.createStatement(ItemInCartRepository.APPLY_DELTA);
+                    for (int i = 0; i < items.size(); i++) {
+                        if (i > 0) statement.add();
+                        statement.bind(0, login)
+                                .bind(1, items.get(i).getId())
+                                .bind(2, items.get(i).getCount());
+                    }
+                    return Flux.from(statement.execute())
+                            .concatMap(result -> result.map((row, metadata) -> 1));
+                })
+                .then()
+                .as(transactionalOperator::transactional)
+                .then(itemsInCartCache.evict(login));
     }
 
-    @CacheEvict(cacheNames = "itemsInCart", key = "#login")
     public Mono<Void> removeItemFromCart(Long itemId, String login) {
-        return itemInCartRepository.deleteByItemIdAndLoginIgnoreCase(itemId, login).log();
+        return itemInCartRepository.deleteByItemIdAndLoginIgnoreCase(itemId, login).log()
+                .then(itemsInCartCache.evict(login));
     }
 }
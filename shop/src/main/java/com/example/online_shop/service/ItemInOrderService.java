@@ -3,24 +3,56 @@ package com.example.online_shop.service;
 import com.example.online_shop.model.entity.ItemInOrder;
 import com.example.online_shop.repository.ItemInOrderRepository;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.r2dbc.core.DatabaseClient;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+
 @Service
 @RequiredArgsConstructor
+@Slf4j
 public class ItemInOrderService {
     private final ItemInOrderRepository itemInOrderRepository;
+    private final DatabaseClient databaseClient;
 
     public Mono<ItemInOrder> save(ItemInOrder item) {
         return itemInOrderRepository.save(item);
     }
 
+    /**
+     * Строки заказа одним INSERT (ItemInOrderRepository.INSERT_ALL) вместо запроса на строку.
+     * Транзакцию задаёт вызывающий.
+     *
+     * @return id строк в порядке items
+     */
+    public Flux<Long> saveAll(Long orderId, List<ItemInOrder> items) {
+        log.info("Start saveAll: orderId={}, items={}", orderId, items.size());
+        if (items.isEmpty()) return Flux.empty();
+        return databaseClient.sql(ItemInOrderRepository.INSERT_ALL)
+                .bind(0, orderId)
+                .bind(1, items.stream().map(ItemInOrder::getItemId).toArray(Long[]::new))
+                .bind(2, items.stream().map(ItemInOrder::getTitle).toArray(String[]::new))
+                .bind(3, items.stream().map(ItemInOrder::getDescription).toArray(String[]::new))
+                .bind(4, items.stream().map(ItemInOrder::getPrice).toArray(BigDecimal[]::new))
+                .bind(5, items.stream().map(ItemInOrder::getCount).toArray(Integer[]::new))
+                .bind(6, items.stream().map(ItemInOrder::getImagePath).toArray(String[]::new))
+                .map(row -> row.get("id", Long.class))
+                .all();
+    }
+
     public Flux<ItemInOrder> getItemInOrderByOrderId(Long orderId) {
         return itemInOrderRepository.getItemInOrderByOrderId(orderId);
     }
 
-    public Flux<ItemInOrder> getItems() {
-        return itemInOrderRepository.findAll();
+    /**
+     * Строки только указанных заказов - для страницы истории заказов.
+     */
+    public Flux<ItemInOrder> getItemsByOrderIds(Collection<Long> orderIds) {
+        return orderIds.isEmpty() ? Flux.empty() : itemInOrderRepository.findByOrderIdInOrderById(orderIds);
     }
 }
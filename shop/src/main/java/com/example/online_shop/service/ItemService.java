@@ -1,19 +1,25 @@
 package com.example.online_shop.service;
 
+import com.example.online_shop.cache.HotItemsTracker;
+import com.example.online_shop.cache.ItemIdFilter;
 import com.example.online_shop.enumiration.ECartAction;
 import com.example.online_shop.enumiration.ESort;
-import com.example.online_shop.mapper.ItemInCartMapper;
+import com.example.online_shop.exception.ImageUploadException;
+import com.example.online_shop.mapper.ItemCursorMapper;
 import com.example.online_shop.mapper.ItemMapper;
 import com.example.online_shop.model.dto.ItemCreateDto;
+import com.example.online_shop.model.dto.ImageDto;
 import com.example.online_shop.model.dto.ItemDto;
 import com.example.online_shop.model.dto.ItemsWithPagingDto;
 import com.example.online_shop.model.dto.PagingParametersDto;
 import com.example.online_shop.model.entity.Item;
-import com.example.online_shop.model.entity.ItemInCart;
 import com.example.online_shop.repository.ItemRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
@@ -21,16 +27,17 @@ import org.springframework.data.domain.Sort;
 import org.springframework.data.redis.core.RedisKeyValueAdapter;
 import org.springframework.data.redis.repository.configuration.EnableRedisRepositories;
 import org.springframework.stereotype.Service;
+import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.unit.DataSize;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -39,76 +46,161 @@ import java.util.stream.Collectors;
 @Slf4j
 @EnableRedisRepositories(enableKeyspaceEvents = RedisKeyValueAdapter.EnableKeyspaceEvents.ON_STARTUP)
 public class ItemService {
+    static final int[] PAGE_SIZES = {5, 10, 20, 50, 100};
+
     private final ItemRepository itemRepository;
     private final ItemMapper itemMapper;
     private final CartService cartService;
     private final ItemInCacheService cacheService;
-    private final ItemInCartService itemInCartService;
-    private final ItemInCartMapper itemInCartMapper;
+    private final ItemCursorMapper itemCursorMapper;
+    private final ImageStore imageStore;
+    private final ImageVariantService imageVariantService;
+    private final ItemIdFilter itemIdFilter;
+    private final HotItemsTracker hotItemsTracker;
 
     @Value("${shop.items.row:5}")
     int itemsRowCount;
 
+    @Value("${shop.image.upload.max-size:50MB}")
+    DataSize maxImageSize;
+
+    @Value("${shop.image.upload.max-concurrent:4}")
+    int maxConcurrentUploads;
+
+    private final AtomicInteger uploadsInFlight = new AtomicInteger();
+
     public Mono<List<List<ItemDto>>> getItems(String search, String sort, int pageNumber, int pageSize, String login) {
-        log.info("Start getItems: login={}", login);
-        AtomicInteger index = new AtomicInteger();
-        return cacheService.getItems(search, sort, pageNumber, pageSize)
-                .flatMapIterable(itemsList -> itemsList)
-                .log()
-                .flatMap(itemDto -> itemInCartService.getCountByItemIdAndLogin(itemDto.getId(), login).defaultIfEmpty(0)
-                        .zipWith(Mono.just(itemDto), (countInLoginCart, item) -> {
-                            item.setCount(countInLoginCart);
-                            return item;
-                        }))
-                .log()
-                .collectList()
-                .map(itemsListWithCount -> itemsListWithCount.stream()
-                        .collect(Collectors.groupingBy(it -> index.getAndIncrement() / itemsRowCount))
-                        .values()
-                        .stream().toList());
+        return getPage(search, sort, null, null, pageNumber, pageSize, login).map(ItemsWithPagingDto::getItems);
+    }
+
+    /**
+     * Товары страницы (по N в ряд) и параметры пагинации по одному чтению из кеша/БД.
+     * Без поиска листание в обе стороны идёт по ключу: cursor - страница после него, before - перед ним.
+     */
+    public Mono<ItemsWithPagingDto> getPage(String search, String sort, String cursor, String before, int pageNumber,
+                                            int requestedPageSize, String login) {
+        log.info("Start getPage: login={}", login);
+        int pageSize = normalizePageSize(requestedPageSize);
+        Mono<Long> totalEstimate = isKeysetAvailable(search)
+                ? cacheService.getItemsCountEstimate().defaultIfEmpty(-1L)
+                : Mono.just(-1L);
+        return Mono.zip(getPageItems(search, sort, cursor, before, pageNumber, pageSize),
+                        cartService.getItemCountsInCart(login),
+                        totalEstimate)
+                .map(pageWithCounts -> {
+                    PageWindow window = pageWithCounts.getT1();
+                    Map<Long, Integer> countsInLoginCart = pageWithCounts.getT2();
+                    List<ItemDto> items = window.items().stream()
+                            .map(item -> item.toBuilder() // список из кеша общий для всех пользователей
+                                    .count(countsInLoginCart.getOrDefault(item.getId(), 0))
+                                    .build())
+                            .toList();
+
+                    AtomicInteger index = new AtomicInteger();
+                    List<List<ItemDto>> rows = items.stream()
+                            .collect(Collectors.groupingBy(it -> index.getAndIncrement() / itemsRowCount))
+                            .values()
+                            .stream().toList();
+                    PagingParametersDto paging = PagingParametersDto.builder()
+                            .pageNumber(window.pageNumber())
+                            .pageSize(pageSize)
+                            .hasPrevious(window.hasPrevious())
+                            .hasNext(window.hasNext())
+                            .nextCursor(window.hasNext() && isKeysetAvailable(search)
+                                    ? itemCursorMapper.toCursor(ESort.valueOf(sort.toUpperCase()), items.getLast())
+                                    : null)
+                            .previousCursor(window.hasPrevious() && isKeysetAvailable(search) && !items.isEmpty()
+                                    ? itemCursorMapper.toCursor(ESort.valueOf(sort.toUpperCase()), items.getFirst())
+                                    : null)
+                            .totalEstimate(pageWithCounts.getT3() >= 0 ? pageWithCounts.getT3() : null)
+                            .build();
+                    return new ItemsWithPagingDto(rows, paging);
+                })
+                .log();
+    }
+
+    private Mono<PageWindow> getPageItems(String search, String sort, String cursor, String before, int pageNumber,
+                                          int pageSize) {
+        if (before != null && !before.isBlank() && isKeysetAvailable(search))
+            return cacheService.getItemsBefore(sort, before, pageSize)
+                    .flatMap(window -> window.isEmpty() // неверный курсор или перед ним ничего нет - первая страница
+                            ? forward(cacheService.getItems(null, sort, 1, pageSize), 1, pageSize)
+                            : Mono.just(window.size() > pageSize
+                            ? new PageWindow(window.subList(1, window.size()), Math.max(pageNumber, 2), true, true)
+                            : new PageWindow(window, 1, false, true)));
+        if (cursor != null && !cursor.isBlank() && isKeysetAvailable(search))
+            return forward(cacheService.getItemsAfter(sort, cursor, pageSize), pageNumber, pageSize);
+        return forward(cacheService.getItems(search, sort, pageNumber, pageSize), pageNumber, pageSize);
     }
 
-    public Mono<PagingParametersDto> getPaging(String search, String sort, int pageNumber, int pagesize) {
-        return Mono.just(PagingParametersDto.builder()
-                        .pageNumber(pageNumber)
-                        .pageSize(pagesize)
-                        .hasPrevious(pageNumber > 1)
-                        .build())
-                .zipWith(cacheService.getItems(search, sort, pageNumber, pagesize)
-                        .flatMapIterable(itemList -> itemList).count()
-                        .map(count -> pageNumber < Math.ceilDiv(count, pagesize)), (paging, isNextPage) -> {
-                    paging.setHasNext(isNextPage);
-                    return paging;
-                });
+    // Окно из pageSize + 1 строк: лишняя последняя строка - признак следующей страницы
+    private static Mono<PageWindow> forward(Mono<List<ItemDto>> window, int pageNumber, int pageSize) {
+        return window.map(rows -> rows.size() > pageSize
+                ? new PageWindow(rows.subList(0, pageSize), pageNumber, pageNumber > 1, true)
+                : new PageWindow(rows, pageNumber, pageNumber > 1, false));
+    }
+
+    /**
+     * Размер страницы приводится к ближайшему не меньшему из PAGE_SIZES, чтобы произвольные значения
+     * из запроса не размножали страницы в кеше.
+     */
+    static int normalizePageSize(int pageSize) {
+        for (int allowed : PAGE_SIZES)
+            if (pageSize <= allowed)
+                return allowed;
+        return PAGE_SIZES[PAGE_SIZES.length - 1];
+    }
+
+    private boolean isKeysetAvailable(String search) { // поиск листается только по номеру страницы
+        return search == null || search.isBlank();
     }
 
 
     public Mono<ItemDto> actionWithItemInCart(Long itemId, String action, String login) {
-        return itemInCartService.getByItemIdAndLogin(itemId, login)
-                .defaultIfEmpty(new ItemInCart())
-                .log()
-                .zipWith(getItemDtoById(itemId, login), (itemInCart, item) -> {
-                    ItemInCart actualItemDto = itemInCart;
-                    if (itemInCart.getCount() == 0) actualItemDto = itemInCartMapper.toItemInCart(item);
-                    actualItemDto.setLogin(login);
-                    return actualItemDto;
-                })
-                .log()
-                .flatMap(itemInCart -> cartService.refresh(itemInCart, action, login))
+        return cacheService.getItemDtoById(itemId)
+                .flatMap(item -> cartService.refresh(item, action, login))
                 .log();
     }
 
     public Mono<ItemDto> getItemDtoById(Long id, String login) {
         return cacheService.getItemDtoById(id)
-                .zipWith(itemInCartService.getCountByItemIdAndLogin(id, login).defaultIfEmpty(0), (itemDto, count) -> {
-                    itemDto.setCount(count);
-                    return itemDto;
-                });
+                .doOnNext(item -> hotItemsTracker.record(id))
+                .zipWith(cartService.getItemCountInCart(id, login).defaultIfEmpty(0), (itemDto, count) ->
+                        itemDto.toBuilder().count(count).build());
     }
 
 
-    public Mono<byte[]> getImage(Long id) {
-        return cacheService.geyImage(id);
+    /**
+     * Картинка товара: файл из хранилища, а для ещё не перенесённых товаров - байты из таблицы.
+     */
+    public Mono<ImageDto> getImage(Long id) {
+        return getImage(id, null);
+    }
+
+    /**
+     * @param width ширина из resolveImageWidth или null - оригинал.
+     *              Если копия ещё не построена, отдаётся оригинал
+     */
+    public Mono<ImageDto> getImage(Long id, Integer width) {
+        return cacheService.getItemDtoById(id)
+                .flatMap(item -> item.getImageHash() == null
+                        ? cacheService.geyImage(id)
+                        .map(image -> new ImageDto(null, null, new ByteArrayResource(image)))
+                        : getStoredImage(item.getImageHash(), width));
+    }
+
+    public Integer resolveImageWidth(Integer requested) {
+        return imageVariantService.resolveWidth(requested);
+    }
+
+    private Mono<ImageDto> getStoredImage(String imageHash, Integer width) {
+        Mono<ImageDto> original = imageStore.get(imageHash)
+                .map(content -> new ImageDto(imageHash, null, content));
+        if (width == null)
+            return original;
+        return imageStore.getVariant(imageHash, width)
+                .map(content -> new ImageDto(imageHash, width, content))
+                .switchIfEmpty(original);
     }
 
     @Transactional
@@ -122,23 +214,44 @@ public class ItemService {
                                 .flatMap(itemRepository::save)
                                 .log()
                                 .map(itemMapper::toDto);
-                    return DataBufferUtils.join(dto.getImage().content())
-                            .publishOn(Schedulers.boundedElastic())
-                            .<byte[]>handle((dataBuffer, sink) -> {
-                                try {
-                                    sink.next(dataBuffer.asInputStream().readAllBytes());
-                                } catch (IOException e) {
-                                    sink.error(new RuntimeException(e));
-                                }
-                            })
-                            .zipWith(itemCreatedDto.map(itemMapper::toItem), (byteArray, item) -> {
-                                item.setImage(byteArray);
+                    return storeImage(dto.getImage())
+                            .flatMap(imageHash -> imageVariantService.createVariants(imageHash).thenReturn(imageHash))
+                            .zipWith(itemCreatedDto.map(itemMapper::toItem), (imageHash, item) -> {
+                                item.setImage(null);
+                                item.setImageHash(imageHash);
                                 return item;
                             })
                             .flatMap(itemRepository::save)
                             .map(itemMapper::toDto);
                 })
-                .flatMap(Function.identity());
+                .flatMap(Function.identity())
+                .doOnNext(item -> itemIdFilter.add(item.getId()));
     }
 
-}
\ No newline at end of file
+    /**
+     * Картинка пишется в хранилище по частям по мере чтения запроса: размер проверяется на лету,
+     * а одновременно обрабатывается не больше maxConcurrentUploads загрузок.
+     */
+    private Mono<String> storeImage(FilePart image) {
+        return Mono.defer(() -> {
+            if (uploadsInFlight.incrementAndGet() > maxConcurrentUploads) {
+                uploadsInFlight.decrementAndGet();
+                return Mono.error(new ImageUploadException("Слишком много одновременных загрузок, повторите позже"));
+            }
+            AtomicLong received = new AtomicLong();
+            Flux<DataBuffer> content = image.content().handle((buffer, sink) -> {
+                if (received.addAndGet(buffer.readableByteCount()) > maxImageSize.toBytes()) {
+                    DataBufferUtils.release(buffer);
+                    sink.error(new ImageUploadException("Размер картинки больше " + maxImageSize.toMegabytes() + " МБ"));
+                } else {
+                    sink.next(buffer);
+                }
+            });
+            return imageStore.save(content)
+                    .doFinally(signal -> uploadsInFlight.decrementAndGet());
+        });
+    }
+
+    private record PageWindow(List<ItemDto> items, int pageNumber, boolean hasPrevious, boolean hasNext) {
+    }
+}
@@ -1,17 +1,24 @@
 package com.example.online_shop.service;
 
+import com.example.online_shop.enumiration.EOrderStatus;
+import com.example.online_shop.exception.PaymentPendingException;
 import com.example.online_shop.mapper.ItemInOrderMapper;
 import com.example.online_shop.mapper.OrderMapper;
+import com.example.online_shop.model.dto.CartDto;
 import com.example.online_shop.model.dto.OrderDto;
+import com.example.online_shop.model.dto.OrdersPageDto;
 import com.example.online_shop.model.entity.ItemInOrder;
+import com.example.online_shop.model.entity.Order;
 import reactor.core.publisher.Mono;
 import com.example.online_shop.repository.OrderRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.reactive.TransactionalOperator;
 import reactor.core.publisher.Flux;
-import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
 
 @Service
@@ -24,61 +31,164 @@ public class OrderService {
     private final ItemInOrderService itemInOrderService;
     private final ItemInOrderMapper itemInOrderMapper;
     private final PaymentsService paymentsService;
+    private final TransactionalOperator transactionalOperator;
 
-    @Transactional
-    public Mono<Long> buy(String login) {
-        log.info("Start buy: login={}", login);
+    @Value("${shop.orders.page-size:10}")
+    int ordersPageSize;
 
-        return cartService.getCart(login).flatMap(cart -> paymentsService.createPayment(cart.getTotal()).flatMap(paymentRes -> {
-                    if (!paymentRes) {
-                        return Mono.error(new RuntimeException("Payment failed"));
-                    }
+    /**
+     * Оформление заказа в три шага, соединение с БД не удерживается на время HTTP-вызова платёжного сервиса:
+     * 1) короткая транзакция - заказ PENDING из снимка корзины (заголовок и строки одним INSERT);
+     * 2) оплата вне транзакции;
+     * 3) короткая транзакция - PAID и удаление из корзины оформленных строк, либо компенсация - FAILED.
+     * Если исход оплаты неизвестен, заказ остаётся PENDING, пока администратор не сверит его с платёжным
+     * сервисом (settle): до этого новое оформление того же пользователя отклоняется - в БД допускается
+     * один заказ PENDING на пользователя (orders_login_pending_uk).
+     * Транзакции задаются явным реактивным TransactionalOperator: рядом на classpath JDBC-стек,
+     * и @Transactional мог бы взять не тот менеджер транзакций.
+     * Повтор с тем же ключом не создаёт второй заказ и не платит повторно, а возвращает результат первой попытки.
+     *
+     * @param idempotencyKey ключ попытки оформления, выданный страницей корзины
+     */
+    public Mono<Long> buy(String login, String idempotencyKey) {
+        log.info("Start buy: login={}, idempotencyKey={}", login, idempotencyKey);
 
-                    OrderDto orderDto = OrderDto.builder().totalSum(cart.getTotal()).items(cart.getItems()
-                                    .values()
-                                    .stream()
-                                    .toList())
-                            .login(login)
-                            .build();
+        return orderRepository.findByLoginAndIdempotencyKey(login, idempotencyKey)
+                .flatMap(this::resumeOrder)
+                .switchIfEmpty(Mono.defer(() -> cartService.getCart(login)
+                        .filter(cart -> !cart.isEmpty())
+                        .switchIfEmpty(Mono.error(new IllegalStateException("Cart is empty")))
+                        .flatMap(cart -> createPendingOrder(cart, login, idempotencyKey)
+                                .flatMap(order -> pay(order, cart)))
+                        // параллельный повтор с тем же ключом успел создать заказ первым,
+                        // либо у пользователя уже есть заказ PENDING с другим ключом
+                        .onErrorResume(DuplicateKeyException.class, e -> orderRepository
+                                .findByLoginAndIdempotencyKey(login, idempotencyKey)
+                                .flatMap(this::resumeOrder)
+                                .switchIfEmpty(Mono.error(new PaymentPendingException(
+                                        "Login " + login + " has an order awaiting payment confirmation"))))));
+    }
+
+    private Mono<Long> resumeOrder(Order order) {
+        log.info("Repeated buy: orderId={}, status={}", order.getId(), order.getStatus());
+        return switch (order.getStatus()) {
+            case PAID -> Mono.just(order.getId());
+            case PENDING -> Mono.error(new PaymentPendingException("Order " + order.getId() + " is being paid"));
+            case FAILED -> Mono.error(new RuntimeException("Payment failed"));
+        };
+    }
 
-                    return orderRepository.save(orderMapper.toOrder(orderDto)).flatMap(order -> {
-                        List<ItemInOrder> itemsInOrder = itemInOrderMapper.toItemInOrderList(orderDto.getItems());
-                        itemsInOrder.forEach(item -> item.setOrderId(order.getId()));
+    private Mono<Order> createPendingOrder(CartDto cart, String login, String idempotencyKey) {
+        OrderDto orderDto = OrderDto.builder().totalSum(cart.getTotal()).items(cart.getItems()
+                        .values()
+                        .stream()
+                        .toList())
+                .login(login)
+                .build();
+        Order pending = orderMapper.toOrder(orderDto);
+        pending.setStatus(EOrderStatus.PENDING);
+        pending.setIdempotencyKey(idempotencyKey);
 
-                        // сохраняем все items реактивно и ждем завершения
-                        return Flux.fromIterable(itemsInOrder).flatMap(itemInOrderService::save).thenReturn(order.getId());
-                    }).flatMap(orderId -> cartService.clearCart(login).thenReturn(orderId));
+        return orderRepository.save(pending).flatMap(order -> {
+                    List<ItemInOrder> itemsInOrder = itemInOrderMapper.toItemInOrderList(orderDto.getItems());
+                    itemsInOrder.forEach(item -> item.setOrderId(order.getId()));
+                    return itemInOrderService.saveAll(order.getId(), itemsInOrder).then(Mono.just(order));
                 })
-        );
+                .as(transactionalOperator::transactional);
     }
 
+    /**
+     * Компенсация (FAILED) - только при явном отказе платёжного сервиса. При ошибке вызова деньги могли
+     * списаться, поэтому заказ остаётся PENDING: повтор с тем же ключом не платит второй раз.
+     *
+     * @param cart снимок корзины, по которому оформлен заказ
+     */
+    private Mono<Long> pay(Order order, CartDto cart) {
+        return paymentsService.createPayment(order.getTotalSum())
+                .defaultIfEmpty(false)
+                .onErrorResume(e -> {
+                    log.warn("Payment outcome unknown, order stays PENDING: orderId={}: {}", order.getId(), e.getMessage());
+                    return Mono.error(new PaymentPendingException("Order " + order.getId() + " payment is not confirmed"));
+                })
+                .flatMap(paid -> paid
+                        ? orderRepository.completePending(order.getId(), EOrderStatus.PAID.name())
+                        .then(cartService.removeOrdered(order.getLogin(), cart.getItems().values()))
+                        .as(transactionalOperator::transactional)
+                        .then(Mono.just(order.getId()))
+                        : orderRepository.completePending(order.getId(), EOrderStatus.FAILED.name())
+                        .as(transactionalOperator::transactional)
+                        .then(Mono.error(new RuntimeException("Payment failed"))));
+    }
+
+    /**
+     * Завершение заказа, исход оплаты которого не был известен, по результату сверки с платёжным сервисом:
+     * PAID - из корзины удаляются строки заказа, FAILED - корзина не меняется.
+     *
+     * @return false - заказа нет или он уже не PENDING
+     */
+    public Mono<Boolean> settle(Long orderId, EOrderStatus status) {
+        log.info("Start settle: orderId={}, status={}", orderId, status);
+        if (status == EOrderStatus.PENDING)
+            return Mono.error(new IllegalArgumentException("Order can only be settled as PAID or FAILED"));
+        return orderRepository.findById(orderId)
+                .filter(order -> order.getStatus() == EOrderStatus.PENDING)
+                .flatMap(order -> orderRepository.completePending(orderId, status.name())
+                        .filter(updated -> updated == 1)
+                        .flatMap(updated -> status == EOrderStatus.PAID
+                                ? itemInOrderService.getItemInOrderByOrderId(orderId)
+                                .collectList()
+                                .flatMap(lines -> cartService.removeOrdered(order.getLogin(),
+                                        itemInOrderMapper.toItemDtoList(lines)))
+                                .thenReturn(true)
+                                : Mono.just(true))
+                        .as(transactionalOperator::transactional))
+                .defaultIfEmpty(false);
+    }
+
+    /**
+     * Страница истории оплаченных заказов пользователя, новые сверху: заголовки по индексу (login, id) с суммой из orders.total_sum
+     * и строки только заказов этой страницы, поэтому память ограничена размером страницы.
+     *
+     * @param before курсор "nextCursor" предыдущей страницы, null - первая страница
+     */
+    public Mono<OrdersPageDto> getOrders(String login, Long before) {
+        log.info("Start getOrders: login={}, before={}", login, before);
+        int limit = ordersPageSize + 1; // лишняя строка - признак следующей страницы
+        Flux<Order> window = before == null
+                ? orderRepository.findPageByLogin(login, limit)
+                : orderRepository.findPageByLoginBefore(login, before, limit);
+        return window.collectList().flatMap(orders -> {
+            boolean hasNext = orders.size() > ordersPageSize;
+            List<Order> page = hasNext ? orders.subList(0, ordersPageSize) : orders;
+            return itemInOrderService.getItemsByOrderIds(page.stream().map(Order::getId).toList())
+                    .collectMultimap(ItemInOrder::getOrderId)
+                    .map(lines -> OrdersPageDto.builder()
+                            .orders(page.stream()
+                                    .map(order -> toOrderDto(order, lines.getOrDefault(order.getId(), List.of())))
+                                    .toList())
+                            .pageSize(ordersPageSize)
+                            .hasNext(hasNext)
+                            .nextCursor(hasNext ? page.getLast().getId() : null)
+                            .build());
+        });
+    }
 
-    public Flux<OrderDto> getOrders() {
-        return itemInOrderService.getItems()
-                .groupBy(ItemInOrder::getOrderId)
-                .flatMap(Flux::collectList)
-                .map(items -> OrderDto.builder()
-                        .items(itemInOrderMapper.toItemDtoList(items))
-                        .id(items.getFirst().getOrderId())
-                        .totalSum(items.stream()
-                                .map(item -> item.getPrice().multiply(BigDecimal.valueOf(item.getCount())))
-                                .reduce(BigDecimal.ZERO, BigDecimal::add))
-                        .build())
-                .sort();
+    /**
+     * Оплаченный заказ пользователя; чужой, неоплаченный или несуществующий - пусто.
+     */
+    public Mono<OrderDto> getOrderById(Long orderId, String login) {
+        return orderRepository.findByIdAndLoginAndStatus(orderId, login, EOrderStatus.PAID)
+                .flatMap(order -> itemInOrderService.getItemInOrderByOrderId(orderId)
+                        .collectList()
+                        .map(items -> toOrderDto(order, items)));
     }
 
-    public Mono<OrderDto> getOrderById(Long orderId) {
-        return itemInOrderService.getItemInOrderByOrderId(orderId)
-                .groupBy(ItemInOrder::getOrderId)
-                .flatMap(groupedFlux -> groupedFlux.collectList())
-                .map(items -> OrderDto.builder()
-                        .items(itemInOrderMapper.toItemDtoList(items))
-                        .id(items.get(0).getOrderId())
-                        .totalSum(items.stream()
-                                .map(item -> item.getPrice()
-                                        .multiply(BigDecimal.valueOf(item.getCount())))
-                                .reduce(BigDecimal.ZERO, BigDecimal::add))
-                        .build())
-                .next();
+    private OrderDto toOrderDto(Order order, Collection<ItemInOrder> items) {
+        return OrderDto.builder()
+                .id(order.getId())
+                .login(order.getLogin())
+                .totalSum(order.getTotalSum())
+                .items(itemInOrderMapper.toItemDtoList(List.copyOf(items)))
+                .build();
     }
-}
\ No newline at end of file
+}
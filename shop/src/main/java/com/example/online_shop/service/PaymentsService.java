@@ -6,6 +6,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.oauth2.client.OAuth2AuthorizeRequest;
 import org.springframework.security.oauth2.client.ReactiveOAuth2AuthorizedClientManager;
 import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 import reactor.core.publisher.Mono;
 
 import java.math.BigDecimal;
@@ -49,11 +50,22 @@ public class PaymentsService extends DefaultApi {
                 .onErrorReturn(BigDecimal.ZERO);
     }
 
+    /**
+     * @return true - оплачено, false - платёж отклонён или не отправлялся (не получен токен);
+     * ошибка - исход неизвестен (таймаут, обрыв связи, ответ 5xx)
+     */
     public Mono<Boolean> createPayment(BigDecimal amount) {
         return callApi()
-                .map(apiClient -> super.apiBalancePost(amount))
+                .onErrorResume(e -> {
+                    log.warn("Cannot authorize payment: {}", e.getMessage());
+                    return Mono.empty();
+                })
+                .map(apiClient -> super.apiBalancePost(amount)
+                        .onErrorResume(WebClientResponseException.class, e -> e.getStatusCode().is4xxClientError()
+                                ? Mono.just(false)
+                                : Mono.error(e)))
                 .flatMap(Function.identity())
                 .log()
-                .onErrorReturn(false);
+                .defaultIfEmpty(false);
     }
 }
@@ -0,0 +1,422 @@
+package com.example.online_shop.service;
+
+import com.example.online_shop.enumiration.ECartAction;
+import com.example.online_shop.model.dto.CartSummaryDto;
+import com.example.online_shop.model.dto.ItemDto;
+import com.example.online_shop.model.entity.ItemInCart;
+import com.example.online_shop.repository.ItemInCartRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Корзина - хеш Redis "cart:{login}" (поле - id товара, значение - количество). Изменения атомарны (Lua-скрипт)
+ * и не ходят в Postgres: логин попадает в множество изменённых корзин, а фоновая запись
+ * пачками переносит такие корзины целиком в items_in_cart.
+ * <p>
+ * Те же скрипты ведут сводку корзины в "cart:{login}:summary", поэтому она читается одним HMGET.
+ * <p>
+ * Хеш загружается из items_in_cart при первом обращении и помечается полем "loaded". Множество изменённых
+ * корзин лежит в Redis, поэтому незаписанные изменения не теряются при остановке узла - их запишет любой узел.
+ * Записываемые корзины переносятся из него в "cart:flushing" и удаляются оттуда только после фиксации транзакции;
+ * корзины, зависшие там дольше flushTimeout (узел остановился посреди записи), забирает следующая запись.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(prefix = "shop.cart", name = "store", havingValue = "redis")
+public class RedisCartStore implements CartStore, InitializingBean, DisposableBean {
+    static final String KEY_PREFIX = "cart:";
+    static final String DIRTY_KEY = "cart:dirty";
+    static final String FLUSHING_KEY = "cart:flushing";
+    static final String LOADED = "loaded";
+    static final String SUMMARY_SUFFIX = ":summary";
+    static final List<String> SUMMARY_FIELDS = List.of("positions", "quantity", "total");
+    static final String PRICE_PREFIX = "p:";
+    private static final String DELETE = "del";
+
+    // Сводка корзины "cart:{login}:summary": positions, quantity, total (в копейках) и цена каждого товара
+    // ("p:{товар}") - по ней стоимость вычитается при уменьшении. Цена - на момент добавления; если при показе
+    // корзины цена каталога уже другая, она заменяется текущей (reprice), чтобы сводка совпадала с показанными строками
+    // Общие функции скриптов корзины, в том числе гостевой (GuestCartStore)
+    static final String CART_FUNCTIONS = """
+            local function summarize(key, item, old, count, price)
+                local field = 'p:' .. item
+                if old > 0 then price = redis.call('HGET', key, field) or price end
+                if count > 0 then redis.call('HSET', key, field, price) else redis.call('HDEL', key, field) end
+                if old == 0 and count > 0 then redis.call('HINCRBY', key, 'positions', 1) end
+                if old > 0 and count == 0 then redis.call('HINCRBY', key, 'positions', -1) end
+                redis.call('HINCRBY', key, 'quantity', count - old)
+                redis.call('HINCRBY', key, 'total', (count - old) * tonumber(price))
+            end
+            local function change(cart, summary, item, delta, price)
+                local old = tonumber(redis.call('HGET', cart, item) or '0')
+                local count = 0
+                if delta ~= 'del' then count = math.max(old + tonumber(delta), 0) end
+                if count > 0 then redis.call('HSET', cart, item, count) else redis.call('HDEL', cart, item) end
+                summarize(summary, item, old, count, price)
+                return count
+            end
+            -- Цена в сводке заменяется текущей ценой каталога, "del" - товар удалён из каталога
+            local function reprice(cart, summary, item, price)
+                local count = tonumber(redis.call('HGET', cart, item) or '0')
+                if count == 0 then return 0 end
+                if price == 'del' then return change(cart, summary, item, 'del', '0') end
+                local field = 'p:' .. item
+                local old = redis.call('HGET', summary, field) or price
+                redis.call('HSET', summary, field, price)
+                redis.call('HINCRBY', summary, 'total', count * (tonumber(price) - tonumber(old)))
+                return count
+            end
+            """;
+
+    // KEYS[1] - корзина, KEYS[2] - изменённые корзины, KEYS[3] - сводка; ARGV: товар, приращение или "del",
+    // ttl, логин, цена в копейках. -1 - хеш не загружен (истёк между загрузкой и изменением), изменение нужно повторить
+    private static final RedisScript<Long> CHANGE_SCRIPT = RedisScript.of(CART_FUNCTIONS + """
+            if redis.call('HEXISTS', KEYS[1], 'loaded') == 0 then return -1 end
+            local count = change(KEYS[1], KEYS[3], ARGV[1], ARGV[2], ARGV[5])
+            redis.call('EXPIRE', KEYS[1], ARGV[3])
+            redis.call('EXPIRE', KEYS[3], ARGV[3])
+            redis.call('SADD', KEYS[2], ARGV[4])
+            return count
+            """, Long.class);
+
+    // KEYS - как у CHANGE_SCRIPT; ARGV: ttl, логин, затем тройки товар, приращение, цена в копейках.
+    // -1 - хеш не загружен, как в CHANGE_SCRIPT
+    private static final RedisScript<Long> APPLY_SCRIPT = RedisScript.of(CART_FUNCTIONS + """
+            if redis.call('HEXISTS', KEYS[1], 'loaded') == 0 then return -1 end
+            for i = 3, #ARGV, 3 do change(KEYS[1], KEYS[3], ARGV[i], ARGV[i + 1], ARGV[i + 2]) end
+            redis.call('EXPIRE', KEYS[1], ARGV[1])
+            redis.call('EXPIRE', KEYS[3], ARGV[1])
+            redis.call('SADD', KEYS[2], ARGV[2])
+            return 1
+            """, Long.class);
+
+    // KEYS - как у CHANGE_SCRIPT; ARGV: логин, затем пары товар, текущая цена в копейках или "del".
+    // Удаление строки помечает корзину изменённой
+    private static final RedisScript<Long> SYNC_SCRIPT = RedisScript.of(CART_FUNCTIONS + """
+            if redis.call('HEXISTS', KEYS[1], 'loaded') == 0 then return 0 end
+            local deleted = false
+            for i = 2, #ARGV, 2 do
+                if ARGV[i + 1] == 'del' then deleted = true end
+                reprice(KEYS[1], KEYS[3], ARGV[i], ARGV[i + 1])
+            end
+            if deleted then redis.call('SADD', KEYS[2], ARGV[1]) end
+            return 1
+            """, Long.class);
+
+    // KEYS[1] - корзина, KEYS[2] - не используется, KEYS[3] - сводка; ARGV: ttl, затем тройки товар, количество, цена
+    private static final RedisScript<Long> LOAD_SCRIPT = RedisScript.of(CART_FUNCTIONS + """
+            if redis.call('HEXISTS', KEYS[1], 'loaded') == 1 then return 0 end
+            redis.call('DEL', KEYS[1], KEYS[3])
+            for i = 2, #ARGV, 3 do change(KEYS[1], KEYS[3], ARGV[i], ARGV[i + 1], ARGV[i + 2]) end
+            redis.call('HSET', KEYS[1], 'loaded', '1')
+            redis.call('EXPIRE', KEYS[1], ARGV[1])
+            redis.call('EXPIRE', KEYS[3], ARGV[1])
+            return 1
+            """, Long.class);
+
+    // KEYS[1] - корзина, KEYS[2] - изменённые корзины, KEYS[3] - сводка; ARGV: ttl, логин
+    private static final RedisScript<Long> CLEAR_SCRIPT = RedisScript.of("""
+            redis.call('DEL', KEYS[1], KEYS[3])
+            redis.call('HSET', KEYS[1], 'loaded', '1')
+            redis.call('EXPIRE', KEYS[1], ARGV[1])
+            redis.call('SADD', KEYS[2], ARGV[2])
+            return 1
+            """, Long.class);
+
+    // KEYS[1] - изменённые корзины, KEYS[2] - записываемые (ZSET по времени захвата); ARGV: число корзин,
+    // время захвата ms, время, раньше которого захват считается брошенным. Возвращает захваченные логины
+    @SuppressWarnings("unchecked")
+    private static final RedisScript<List<String>> CLAIM_SCRIPT = RedisScript.of("""
+            local logins = redis.call('ZRANGEBYSCORE', KEYS[2], '-inf', ARGV[3], 'LIMIT', 0, ARGV[1])
+            for _, login in ipairs(redis.call('SPOP', KEYS[1], ARGV[1])) do table.insert(logins, login) end
+            for _, login in ipairs(logins) do redis.call('ZADD', KEYS[2], ARGV[2], login) end
+            return logins
+            """, (Class<List<String>>) (Class<?>) List.class);
+
+    // KEYS - как у CLAIM_SCRIPT; ARGV: время захвата, 1 - вернуть в изменённые (запись не удалась), логины.
+    // Трогает только собственный захват: корзину могли перезахватить как брошенную
+    private static final RedisScript<Long> RELEASE_SCRIPT = RedisScript.of("""
+            for i = 3, #ARGV do
+                if tonumber(redis.call('ZSCORE', KEYS[2], ARGV[i])) == tonumber(ARGV[1]) then
+                    redis.call('ZREM', KEYS[2], ARGV[i])
+                    if ARGV[2] == '1' then redis.call('SADD', KEYS[1], ARGV[i]) end
+                end
+            end
+            return 1
+            """, Long.class);
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final ItemInCartRepository itemInCartRepository;
+    private final ItemInCacheService cacheService;
+    private final TransactionalOperator transactionalOperator;
+    private final Duration ttl;
+    private final Duration flushInterval;
+    private final long flushBatchSize;
+    private final Duration flushTimeout;
+    private Disposable flushing;
+
+    public RedisCartStore(ReactiveStringRedisTemplate redisTemplate,
+                          ItemInCartRepository itemInCartRepository,
+                          ItemInCacheService cacheService,
+                          TransactionalOperator transactionalOperator,
+                          @Value("${shop.cart.redis.ttl:30d}") Duration ttl,
+                          @Value("${shop.cart.redis.flush-interval:1s}") Duration flushInterval,
+                          @Value("${shop.cart.redis.flush-batch-size:100}") long flushBatchSize,
+                          @Value("${shop.cart.redis.flush-timeout:1m}") Duration flushTimeout) {
+        this.redisTemplate = redisTemplate;
+        this.itemInCartRepository = itemInCartRepository;
+        this.cacheService = cacheService;
+        this.transactionalOperator = transactionalOperator;
+        this.ttl = ttl;
+        this.flushInterval = flushInterval;
+        this.flushBatchSize = flushBatchSize;
+        this.flushTimeout = flushTimeout;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        flushing = Flux.interval(flushInterval)
+                .onBackpressureDrop()
+                .concatMap(tick -> flush())
+                .subscribe();
+    }
+
+    @Override
+    public void destroy() {
+        flushing.dispose();
+        flush().block(Duration.ofSeconds(10)); // остаток запишет другой узел или следующий запуск
+    }
+
+    @Override
+    public Mono<List<ItemInCart>> getByLogin(String login) {
+        return ensureLoaded(login)
+                .then(Mono.zip(entries(key(login)), entries(summaryKey(login))))
+                .flatMap(hashes -> toRows(login, hashes.getT1())
+                        .flatMap(rows -> sync(login, hashes.getT1(), hashes.getT2(), rows).thenReturn(rows)));
+    }
+
+    @Override
+    public Mono<Map<Long, Integer>> getCounts(String login) {
+        return ensureLoaded(login)
+                .then(redisTemplate.<String, String>opsForHash().entries(key(login))
+                        .filter(entry -> !LOADED.equals(entry.getKey()))
+                        .collectMap(entry -> Long.valueOf(entry.getKey()), entry -> Integer.valueOf(entry.getValue())));
+    }
+
+    @Override
+    public Mono<Integer> getCount(Long itemId, String login) {
+        return ensureLoaded(login)
+                .then(redisTemplate.<String, String>opsForHash().get(key(login), String.valueOf(itemId)))
+                .map(Integer::valueOf)
+                .defaultIfEmpty(0);
+    }
+
+    @Override
+    public Mono<CartSummaryDto> getSummary(String login) {
+        return ensureLoaded(login)
+                .then(redisTemplate.<String, String>opsForHash().multiGet(summaryKey(login), SUMMARY_FIELDS))
+                .map(RedisCartStore::toSummary);
+    }
+
+    @Override
+    public Mono<Integer> change(ItemDto item, ECartAction action, String login) {
+        String delta = switch (action) {
+            case PLUS -> "1";
+            case MINUS -> "-1";
+            case DELETE -> DELETE;
+        };
+        return Mono.defer(() -> ensureLoaded(login)
+                        .then(redisTemplate.execute(CHANGE_SCRIPT, keys(login), List.of(String.valueOf(item.getId()), delta,
+                                String.valueOf(ttl.toSeconds()), login, toMinorUnits(item.getPrice()))).next()))
+                .filter(count -> count >= 0)
+                .repeatWhenEmpty(2, repeats -> repeats)
+                .map(Long::intValue);
+    }
+
+    @Override
+    public Mono<Void> applyAll(List<ItemDto> items, String login) {
+        List<String> args = new ArrayList<>();
+        args.add(String.valueOf(ttl.toSeconds()));
+        args.add(login);
+        items.forEach(item -> {
+            args.add(String.valueOf(item.getId()));
+            args.add(String.valueOf(item.getCount()));
+            args.add(toMinorUnits(item.getPrice()));
+        });
+        return Mono.defer(() -> ensureLoaded(login)
+                        .then(redisTemplate.execute(APPLY_SCRIPT, keys(login), args).next()))
+                .filter(result -> result >= 0)
+                .repeatWhenEmpty(2, repeats -> repeats)
+                .then();
+    }
+
+    @Override
+    public Mono<Void> clear(String login) {
+        return redisTemplate.execute(CLEAR_SCRIPT, keys(login), List.of(String.valueOf(ttl.toSeconds()), login)).then();
+    }
+
+    /**
+     * Записывает пачку изменённых корзин одной транзакцией. Захват снимается после фиксации; при ошибке логины
+     * возвращаются в множество изменённых и будут записаны на следующем шаге. Изменение корзины во время записи
+     * снова добавляет её в множество изменённых, поэтому и оно будет записано.
+     */
+    Mono<Void> flush() {
+        long claimedAt = System.currentTimeMillis();
+        return redisTemplate.execute(CLAIM_SCRIPT, List.of(DIRTY_KEY, FLUSHING_KEY), List.of(String.valueOf(flushBatchSize),
+                        String.valueOf(claimedAt), String.valueOf(claimedAt - flushTimeout.toMillis())))
+                .next()
+                .map(claimed -> claimed.stream().distinct().toList())
+                .filter(logins -> !logins.isEmpty())
+                .flatMap(logins -> Flux.fromIterable(logins)
+                        .concatMap(this::snapshot)
+                        .collectList()
+                        .flatMap(carts -> Flux.fromIterable(carts)
+                                .concatMap(cart -> itemInCartRepository.deleteByLoginIgnoreCase(cart.login())
+                                        .thenMany(itemInCartRepository.saveAll(cart.rows())))
+                                .then()
+                                .as(transactionalOperator::transactional))
+                        .then(Mono.defer(() -> release(claimedAt, logins, false)))
+                        .doOnSuccess(ignored -> log.debug("Flushed carts: {}", logins))
+                        .onErrorResume(e -> {
+                            log.warn("Cannot flush carts {}: {}", logins, e.getMessage());
+                            return release(claimedAt, logins, true);
+                        }));
+    }
+
+    private Mono<Void> release(long claimedAt, List<String> logins, boolean failed) {
+        List<String> args = new ArrayList<>();
+        args.add(String.valueOf(claimedAt));
+        args.add(failed ? "1" : "0");
+        args.addAll(logins);
+        return redisTemplate.execute(RELEASE_SCRIPT, List.of(DIRTY_KEY, FLUSHING_KEY), args).then();
+    }
+
+    /**
+     * Сводка приводится к показанным строкам: текущие цены каталога, без товаров, удалённых из каталога.
+     * Скрипт выполняется, только если сводка с ними расходится, - обычное чтение корзины в Redis не пишет.
+     * Ошибка показу корзины не мешает.
+     */
+    private Mono<Void> sync(String login, Map<String, String> cart, Map<String, String> summary, List<ItemInCart> rows) {
+        List<String> stale = syncArgs(cart, summary, rows);
+        if (stale.isEmpty())
+            return Mono.empty();
+        List<String> args = new ArrayList<>();
+        args.add(login);
+        args.addAll(stale);
+        return redisTemplate.execute(SYNC_SCRIPT, keys(login), args)
+                .then()
+                .onErrorResume(e -> {
+                    log.warn("Cannot sync cart summary {}: {}", login, e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    private Mono<Void> ensureLoaded(String login) {
+        return redisTemplate.opsForHash().hasKey(key(login), LOADED)
+                .filter(loaded -> !loaded)
+                .flatMap(ignored -> itemInCartRepository.getByLoginIgnoreCase(login).collectList())
+                .flatMap(cacheService::withCatalogFields) // цены для сводки
+                .flatMap(rows -> {
+                    List<String> args = new ArrayList<>();
+                    args.add(String.valueOf(ttl.toSeconds()));
+                    rows.forEach(row -> {
+                        args.add(String.valueOf(row.getItemId()));
+                        args.add(String.valueOf(row.getCount()));
+                        args.add(toMinorUnits(row.getPrice()));
+                    });
+                    return redisTemplate.execute(LOAD_SCRIPT, keys(login), args).then();
+                });
+    }
+
+    /**
+     * @return пусто, если хеш истёк: в items_in_cart уже лежит его последнее записанное состояние
+     */
+    private Mono<CartSnapshot> snapshot(String login) {
+        return redisTemplate.<String, String>opsForHash().entries(key(login))
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+                .filter(cart -> cart.containsKey(LOADED))
+                .flatMap(cart -> toRows(login, cart))
+                .map(rows -> new CartSnapshot(login, rows));
+    }
+
+    // Названия и цены берутся из кеша каталога; удалённые из каталога товары пропускаются
+    private Mono<List<ItemInCart>> toRows(String login, Map<String, String> cart) {
+        return cacheService.withCatalogFields(cart.entrySet().stream()
+                .filter(entry -> !LOADED.equals(entry.getKey()))
+                .map(entry -> ItemInCart.builder()
+                        .itemId(Long.valueOf(entry.getKey()))
+                        .count(Integer.parseInt(entry.getValue()))
+                        .login(login)
+                        .build())
+                .toList());
+    }
+
+    // Пары товар, текущая цена в копейках или "del" - для товаров корзины, цена которых в сводке устарела
+    static List<String> syncArgs(Map<String, String> cart, Map<String, String> summary, List<ItemInCart> rows) {
+        Map<String, String> prices = rows.stream()
+                .collect(Collectors.toMap(row -> String.valueOf(row.getItemId()), row -> toMinorUnits(row.getPrice())));
+        List<String> args = new ArrayList<>();
+        cart.keySet().stream()
+                .filter(item -> !LOADED.equals(item))
+                .forEach(item -> {
+                    String price = prices.getOrDefault(item, DELETE);
+                    if (!price.equals(summary.get(PRICE_PREFIX + item))) {
+                        args.add(item);
+                        args.add(price);
+                    }
+                });
+        return args;
+    }
+
+    private Mono<Map<String, String>> entries(String key) {
+        return redisTemplate.<String, String>opsForHash().entries(key)
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue);
+    }
+
+    private static String key(String login) {
+        return KEY_PREFIX + login.toLowerCase(Locale.ROOT);
+    }
+
+    private static String summaryKey(String login) {
+        return key(login) + SUMMARY_SUFFIX;
+    }
+
+    private static List<String> keys(String login) {
+        return List.of(key(login), DIRTY_KEY, summaryKey(login));
+    }
+
+    static String toMinorUnits(BigDecimal price) {
+        return price == null ? "0" : price.movePointRight(2).setScale(0, RoundingMode.HALF_UP).toPlainString();
+    }
+
+    // Значения SUMMARY_FIELDS; отсутствующая сводка - пустая корзина
+    static CartSummaryDto toSummary(List<String> values) {
+        return CartSummaryDto.builder()
+                .positions(values.get(0) == null ? 0 : Integer.parseInt(values.get(0)))
+                .quantity(values.get(1) == null ? 0 : Integer.parseInt(values.get(1)))
+                .total(values.get(2) == null ? BigDecimal.ZERO : BigDecimal.valueOf(Long.parseLong(values.get(2)), 2))
+                .build();
+    }
+
+    private record CartSnapshot(String login, List<ItemInCart> rows) {
+    }
+}
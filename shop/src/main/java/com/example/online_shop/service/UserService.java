@@ -34,6 +34,8 @@ public class UserService implements ReactiveUserDetailsService {
 
     public Mono<String> addUser(Mono<NewUserDto> userMono) {
         return userMono
+                .filter(newUser -> !CartService.isGuest(newUser.getLogin())) // префикс зарезервирован за корзинами гостей
+                .switchIfEmpty(Mono.error(() -> new IllegalArgumentException("Login is reserved")))
                 .flatMap((NewUserDto newUser) ->
                         userRepository.findUserByLoginIgnoreCase(newUser.getLogin())
                                 .flatMap(found ->
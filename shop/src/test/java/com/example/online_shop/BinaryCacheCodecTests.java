@@ -0,0 +1,86 @@
+package com.example.online_shop;
+
+import com.example.online_shop.cache.BinaryCacheCodec;
+import com.example.online_shop.cache.CacheCodec;
+import com.example.online_shop.cache.ItemDtoBinaryCodec;
+import com.example.online_shop.cache.ItemInCartBinaryCodec;
+import com.example.online_shop.cache.Lz4CacheCodec;
+import com.example.online_shop.model.dto.ItemDto;
+import com.example.online_shop.model.entity.ItemInCart;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryCacheCodecTests {
+
+    @Test
+    void testItemPageRoundTrip() {
+        List<ItemDto> page = page();
+        CacheCodec<List<ItemDto>> codec = ItemDtoBinaryCodec.INSTANCE.listOf();
+
+        assertEquals(page, codec.decode(codec.encode(page)));
+    }
+
+    @Test
+    void testNullFieldsAndLargeValuesRoundTrip() {
+        ItemDto item = ItemDto.builder()
+                .id(Long.MAX_VALUE)
+                .count(-1)
+                .price(new BigDecimal("123456789012345678901234567890.12"))
+                .build();
+        item.setPrice(null);
+        assertEquals(item, ItemDtoBinaryCodec.INSTANCE.decode(ItemDtoBinaryCodec.INSTANCE.encode(item)));
+
+        item.setPrice(new BigDecimal("123456789012345678901234567890.12"));
+        assertEquals(item, ItemDtoBinaryCodec.INSTANCE.decode(ItemDtoBinaryCodec.INSTANCE.encode(item)));
+        assertEquals(-5L, BinaryCacheCodec.LONG.decode(BinaryCacheCodec.LONG.encode(-5L)));
+    }
+
+    @Test
+    void testCartRoundTrip() {
+        List<ItemInCart> cart = List.of(ItemInCart.builder().id(1L).itemId(7L).login("user").count(3).build());
+        CacheCodec<List<ItemInCart>> codec = ItemInCartBinaryCodec.INSTANCE.listOf();
+
+        assertEquals(cart, codec.decode(codec.encode(cart)));
+    }
+
+    @Test
+    void testLz4CompressesLargeValuesOnly() {
+        CacheCodec<List<ItemDto>> binary = ItemDtoBinaryCodec.INSTANCE.listOf();
+        CacheCodec<List<ItemDto>> lz4 = new Lz4CacheCodec<>(binary, 512);
+        List<ItemDto> page = page();
+
+        byte[] compressed = lz4.encode(page);
+        assertTrue(compressed.length < binary.encode(page).length);
+        assertEquals(page, lz4.decode(compressed));
+
+        List<ItemDto> small = List.of(ItemDto.builder().id(1L).title("Товар 1").build());
+        assertEquals(binary.encode(small).length + 1, lz4.encode(small).length);
+        assertEquals(small, lz4.decode(lz4.encode(small)));
+    }
+
+    @Test
+    void testTruncatedValueIsRejected() {
+        byte[] bytes = ItemDtoBinaryCodec.INSTANCE.listOf().encode(page());
+
+        assertThrows(IllegalArgumentException.class, () ->
+                ItemDtoBinaryCodec.INSTANCE.listOf().decode(Arrays.copyOf(bytes, bytes.length / 2)));
+    }
+
+    private static List<ItemDto> page() {
+        return IntStream.rangeClosed(1, 20)
+                .mapToObj(id -> ItemDto.builder()
+                        .id((long) id)
+                        .title("Товар " + id)
+                        .description("Описание товара для проверки сжатия ".repeat(8))
+                        .imagePath("http://localhost:8084/items/image/" + id)
+                        .price(BigDecimal.valueOf(id * 1050L, 2))
+                        .build())
+                .toList();
+    }
+}
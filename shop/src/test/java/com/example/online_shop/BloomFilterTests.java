@@ -0,0 +1,38 @@
+package com.example.online_shop;
+
+import com.example.online_shop.cache.BloomFilter;
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BloomFilterTests {
+
+    @Test
+    void testAddedIdsAreAlwaysFound() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        LongStream.rangeClosed(1, 10_000).forEach(filter::put);
+
+        assertTrue(LongStream.rangeClosed(1, 10_000).allMatch(filter::mightContain));
+        assertFalse(filter.isOverloaded());
+    }
+
+    @Test
+    void testFalsePositiveRateIsNearExpected() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        LongStream.rangeClosed(1, 10_000).forEach(filter::put);
+
+        long falsePositives = LongStream.rangeClosed(1_000_001, 1_100_000).filter(filter::mightContain).count();
+
+        assertTrue(falsePositives < 2_000, "false positives: " + falsePositives);
+    }
+
+    @Test
+    void testOverloadIsReported() {
+        BloomFilter filter = new BloomFilter(10, 0.01);
+        LongStream.rangeClosed(1, 11).forEach(filter::put);
+
+        assertTrue(filter.isOverloaded());
+    }
+}
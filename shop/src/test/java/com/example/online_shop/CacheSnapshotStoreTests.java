@@ -0,0 +1,88 @@
+package com.example.online_shop;
+
+import com.example.online_shop.cache.CacheInvalidationBus;
+import com.example.online_shop.cache.CacheSnapshotStore;
+import com.example.online_shop.cache.JacksonCacheCodec;
+import com.example.online_shop.cache.ReactiveCache;
+import com.example.online_shop.cache.ReactiveCacheManager;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.ReactiveValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@SuppressWarnings("unchecked")
+public class CacheSnapshotStoreTests {
+    private final ReactiveRedisTemplate<String, byte[]> redisTemplate = mock(ReactiveRedisTemplate.class);
+    private final ReactiveValueOperations<String, byte[]> valueOperations = mock(ReactiveValueOperations.class);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testLocalCacheSurvivesRestart() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.get(any())).thenReturn(Mono.empty()); // Redis пуст, например после FLUSHALL
+        when(valueOperations.set(any(), any(), any(Duration.class))).thenReturn(Mono.just(true));
+
+        ReactiveCacheManager before = manager();
+        ReactiveCache<String> cache = before.createCache("item", Duration.ofHours(1), codec());
+        cache.get("1", () -> Mono.just("Товар 1")).block();
+        new CacheSnapshotStore(before, directory, Duration.ofMinutes(10)).destroy();
+        assertTrue(Files.exists(directory.resolve("item-json.snapshot")));
+
+        ReactiveCacheManager after = manager();
+        ReactiveCache<String> restarted = after.createCache("item", Duration.ofHours(1), codec());
+        new CacheSnapshotStore(after, directory, Duration.ofMinutes(10)).restore();
+        AtomicInteger loads = new AtomicInteger();
+
+        assertEquals("Товар 1", restarted.get("1", () -> Mono.fromCallable(() -> "Товар " + loads.incrementAndGet())).block());
+        assertEquals(0, loads.get());
+    }
+
+    @Test
+    void testStaleSnapshotIsIgnored() throws InterruptedException {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.get(any())).thenReturn(Mono.empty());
+        when(valueOperations.set(any(), any(), any(Duration.class))).thenReturn(Mono.just(true));
+
+        ReactiveCacheManager before = manager();
+        before.createCache("item", Duration.ofHours(1), codec()).get("1", () -> Mono.just("Товар 1")).block();
+        new CacheSnapshotStore(before, directory, Duration.ofMillis(1)).destroy();
+        Thread.sleep(10);
+
+        ReactiveCacheManager after = manager();
+        ReactiveCache<String> restarted = after.createCache("item", Duration.ofHours(1), codec());
+        new CacheSnapshotStore(after, directory, Duration.ofMillis(1)).restore();
+
+        assertEquals("Товар 2", restarted.get("1", () -> Mono.just("Товар 2")).block());
+    }
+
+    private ReactiveCacheManager manager() {
+        ReactiveCacheManager manager = new ReactiveCacheManager(redisTemplate, mock(CacheInvalidationBus.class),
+                new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(manager, "localCacheNames", List.of("item"));
+        ReflectionTestUtils.setField(manager, "localCacheMaximumSize", 100L);
+        ReflectionTestUtils.setField(manager, "localCacheMaxTtl", Duration.ofMinutes(1));
+        ReflectionTestUtils.setField(manager, "earlyRefreshBeta", 0.0);
+        return manager;
+    }
+
+    private JacksonCacheCodec<String> codec() {
+        return new JacksonCacheCodec<>(objectMapper, objectMapper.constructType(String.class));
+    }
+}
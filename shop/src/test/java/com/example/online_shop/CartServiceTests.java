@@ -0,0 +1,163 @@
+package com.example.online_shop;
+
+import com.example.online_shop.mapper.ItemInCartMapper;
+import com.example.online_shop.model.dto.CartOperationDto;
+import com.example.online_shop.model.dto.CartSummaryDto;
+import com.example.online_shop.model.dto.ItemDto;
+import com.example.online_shop.model.entity.ItemInCart;
+import com.example.online_shop.service.CartService;
+import com.example.online_shop.service.CartStore;
+import com.example.online_shop.service.GuestCartStore;
+import com.example.online_shop.service.ItemInCacheService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.modelmapper.ModelMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class CartServiceTests {
+    private final CartStore cartStore = mock(CartStore.class);
+    private final ItemInCacheService cacheService = mock(ItemInCacheService.class);
+    private final GuestCartStore guestCartStore = mock(GuestCartStore.class);
+    private final CartService cartService = new CartService(cartStore, guestCartStore,
+            new ItemInCartMapper(new ModelMapper()), cacheService);
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(cartService, "maxOperations", 4);
+        when(cacheService.getItemDtoById(anyLong())).thenReturn(Mono.empty());
+        when(cacheService.getItemDtoById(1L)).thenReturn(Mono.just(ItemDto.builder().id(1L).title("Товар 1").build()));
+        when(cacheService.getItemDtoById(2L)).thenReturn(Mono.just(ItemDto.builder().id(2L).title("Товар 2").build()));
+        when(cartStore.applyAll(anyList(), anyString())).thenReturn(Mono.empty());
+        when(cartStore.getSummary("user")).thenReturn(Mono.just(new CartSummaryDto(2, 4, BigDecimal.valueOf(35))));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testApplyAllMergesOperationsAndReturnsSummary() {
+        CartSummaryDto summary = cartService.applyAll(List.of(
+                new CartOperationDto(1L, 2),
+                new CartOperationDto(2L, 1),
+                new CartOperationDto(1L, 1),
+                new CartOperationDto(2L, -1)), "user").block();
+
+        ArgumentCaptor<List<ItemDto>> items = ArgumentCaptor.forClass(List.class);
+        verify(cartStore).applyAll(items.capture(), eq("user"));
+        assertEquals(1, items.getValue().size()); // товар 2: +1 -1 = 0 - операция отброшена
+        assertEquals(1L, items.getValue().getFirst().getId());
+        assertEquals(3, items.getValue().getFirst().getCount());
+        assertEquals("Товар 1", items.getValue().getFirst().getTitle());
+
+        assertEquals(2, summary.getPositions());
+        assertEquals(4, summary.getQuantity());
+        assertEquals(0, BigDecimal.valueOf(35).compareTo(summary.getTotal()));
+        verify(cartStore, never()).getByLogin(anyString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testRemoveOrderedSubtractsOnlyOrderedCounts() {
+        cartService.removeOrdered("user", List.of(
+                ItemDto.builder().id(1L).count(2).price(BigDecimal.TEN).build(),
+                ItemDto.builder().id(2L).count(1).price(BigDecimal.ONE).build())).block();
+
+        ArgumentCaptor<List<ItemDto>> items = ArgumentCaptor.forClass(List.class);
+        verify(cartStore).applyAll(items.capture(), eq("user"));
+        assertEquals(List.of(-2, -1), items.getValue().stream().map(ItemDto::getCount).toList());
+        verify(cartStore, never()).clear(anyString());
+    }
+
+    @Test
+    void testItemCountsDoNotReadCatalogFields() {
+        when(cartStore.getCounts("user")).thenReturn(Mono.just(Map.of(1L, 2)));
+
+        assertEquals(Map.of(1L, 2), cartService.getItemCountsInCart("user").block());
+        verify(cartStore, never()).getByLogin(anyString());
+        verifyNoInteractions(cacheService);
+    }
+
+    @Test
+    void testSummaryOfAnonymousIsEmpty() {
+        assertEquals(0, cartService.getSummary("").block().getQuantity());
+        verifyNoInteractions(cartStore);
+    }
+
+    @Test
+    void testUnknownItemRejectsWholeBatch() {
+        Mono<CartSummaryDto> result = cartService.applyAll(List.of(
+                new CartOperationDto(1L, 1),
+                new CartOperationDto(99L, 1)), "user");
+
+        assertThrows(IllegalArgumentException.class, result::block);
+        verify(cartStore, never()).applyAll(anyList(), anyString());
+    }
+
+    @Test
+    void testInvalidOperationsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> cartService.applyAll(List.of(
+                new CartOperationDto(1L, 1), new CartOperationDto(1L, 1),
+                new CartOperationDto(1L, 1), new CartOperationDto(1L, 1),
+                new CartOperationDto(1L, 1)), "user").block());
+        assertThrows(IllegalArgumentException.class, () -> cartService.applyAll(List.of(
+                new CartOperationDto(null, 1)), "user").block());
+        assertThrows(IllegalArgumentException.class, () -> cartService.applyAll(List.of(
+                new CartOperationDto(1L, 1_000_000)), "user").block());
+        verify(cartStore, never()).applyAll(anyList(), anyString());
+    }
+
+    @Test
+    void testGuestCartIsKeptInGuestStore() {
+        when(guestCartStore.getSummary("guest:1")).thenReturn(Mono.just(new CartSummaryDto(1, 2, BigDecimal.ONE)));
+
+        assertEquals(2, cartService.getSummary("guest:1").block().getQuantity());
+        assertEquals(0, cartService.getItemCountInCart(1L, "").block());
+        verifyNoInteractions(cartStore);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testMergeGuestCartAppliesAllLinesAndClearsGuestCart() {
+        when(guestCartStore.getByLogin("guest:1")).thenReturn(Mono.just(List.of(
+                ItemInCart.builder().itemId(1L).count(2).title("Товар 1").price(BigDecimal.TEN).build(),
+                ItemInCart.builder().itemId(2L).count(1).title("Товар 2").price(BigDecimal.ONE).build())));
+        when(guestCartStore.clear("guest:1")).thenReturn(Mono.empty());
+
+        cartService.mergeGuestCart("guest:1", "user").block();
+
+        ArgumentCaptor<List<ItemDto>> items = ArgumentCaptor.forClass(List.class);
+        verify(cartStore).applyAll(items.capture(), eq("user"));
+        assertEquals(List.of(1L, 2L), items.getValue().stream().map(ItemDto::getId).toList());
+        assertEquals(List.of(2, 1), items.getValue().stream().map(ItemDto::getCount).toList());
+        verify(guestCartStore).clear("guest:1");
+    }
+
+    @Test
+    void testMergeGuestCartSucceedsWhenGuestCartCannotBeCleared() {
+        when(guestCartStore.getByLogin("guest:1")).thenReturn(Mono.just(List.of(
+                ItemInCart.builder().itemId(1L).count(2).title("Товар 1").price(BigDecimal.TEN).build())));
+        when(guestCartStore.clear("guest:1")).thenReturn(Mono.error(new RuntimeException("redis down")));
+
+        cartService.mergeGuestCart("guest:1", "user").block();
+
+        verify(cartStore).applyAll(anyList(), eq("user"));
+    }
+
+    @Test
+    void testFailedMergeDoesNotClearGuestCart() {
+        when(guestCartStore.getByLogin("guest:1")).thenReturn(Mono.just(List.of(
+                ItemInCart.builder().itemId(1L).count(2).title("Товар 1").price(BigDecimal.TEN).build())));
+        when(cartStore.applyAll(anyList(), eq("user"))).thenReturn(Mono.error(new RuntimeException("db down")));
+
+        assertThrows(RuntimeException.class, () -> cartService.mergeGuestCart("guest:1", "user").block());
+        verify(guestCartStore, never()).clear(anyString());
+    }
+}
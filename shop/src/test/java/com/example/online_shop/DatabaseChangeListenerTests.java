@@ -0,0 +1,151 @@
+package com.example.online_shop;
+
+import com.example.online_shop.cache.DatabaseChangeListener;
+import com.example.online_shop.cache.ItemIdFilter;
+import com.example.online_shop.cache.ReactiveCache;
+import com.example.online_shop.model.dto.ItemDto;
+import com.example.online_shop.model.entity.ItemInCart;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.AutoConfigurationPackage;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcProperties;
+import org.springframework.boot.test.autoconfigure.data.r2dbc.DataR2dbcTest;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Триггеры changelog-006/012 и слушатель NOTIFY на настоящей БД; кеши - заглушки.
+ */
+@DataR2dbcTest
+@ActiveProfiles("test")
+@ContextConfiguration(classes = DatabaseChangeListenerTests.Configuration.class)
+@SuppressWarnings("unchecked")
+public class DatabaseChangeListenerTests {
+    private static final String LOGIN = "listener-test";
+
+    @Autowired
+    private R2dbcProperties properties;
+    @Autowired
+    private DatabaseClient databaseClient;
+
+    private final ReactiveCache<List<ItemDto>> itemsCache = mock(ReactiveCache.class);
+    private final ReactiveCache<ItemDto> itemCache = mock(ReactiveCache.class);
+    private final ReactiveCache<List<ItemInCart>> itemsInCartCache = mock(ReactiveCache.class);
+    private final ReactiveCache<byte[]> pictureCache = mock(ReactiveCache.class);
+    private final ItemIdFilter itemIdFilter = mock(ItemIdFilter.class);
+    private DatabaseChangeListener listener;
+
+    // без ShopApplication и его Redis-репозиториев: Redis тесту не нужен
+    @AutoConfigurationPackage(basePackageClasses = ShopApplication.class)
+    static class Configuration {
+    }
+
+    @BeforeEach
+    void setUp() {
+        for (ReactiveCache<?> cache : List.of(itemsCache, itemCache, itemsInCartCache, pictureCache)) {
+            when(cache.invalidateOnce(any())).thenReturn(Mono.empty());
+            when(cache.invalidateAllOnce(any())).thenReturn(Mono.empty());
+        }
+        when(itemIdFilter.resume(anyBoolean())).thenReturn(Mono.empty());
+        databaseClient.sql("insert into users(login, password, roles) values(:login, '-', 'ROLE_USER') on conflict do nothing")
+                .bind("login", LOGIN)
+                .then()
+                .block();
+        listener = new DatabaseChangeListener(properties, itemsCache, itemCache, itemsInCartCache, pictureCache,
+                itemIdFilter);
+        listener.afterPropertiesSet();
+        verify(itemIdFilter, timeout(5000)).resume(false); // LISTEN выполнен
+    }
+
+    @AfterEach
+    void tearDown() {
+        listener.destroy();
+        databaseClient.sql("delete from items_in_cart where login = :login").bind("login", LOGIN).then().block();
+    }
+
+    @Test
+    void testItemChangeInvalidatesItemOnceAndAdvancesPagesGeneration() {
+        Long id = insertItem();
+        long event = databaseClient.sql("select last_value from items_changed_seq")
+                .map(row -> row.get(0, Long.class))
+                .one()
+                .block();
+
+        verify(itemCache, timeout(5000)).invalidateOnce(Map.of(String.valueOf(event), String.valueOf(id)));
+        verify(pictureCache, timeout(5000)).invalidateOnce(Map.of(String.valueOf(event), String.valueOf(id)));
+        verify(itemsCache, timeout(5000)).advanceGeneration(event);
+        verify(itemIdFilter, timeout(5000)).add(id);
+        verify(itemsCache, never()).invalidateAll();
+
+        deleteItem(id);
+    }
+
+    @Test
+    void testCartChangeInvalidatesCartByLogin() {
+        Long id = insertItem();
+        databaseClient.sql("insert into items_in_cart(count, item_id, login) values(1, :id, :login)")
+                .bind("id", id)
+                .bind("login", LOGIN)
+                .then()
+                .block();
+
+        verify(itemsInCartCache, timeout(5000)).invalidateOnce(argThat(events -> events.containsValue(LOGIN)));
+
+        databaseClient.sql("delete from items_in_cart where login = :login").bind("login", LOGIN).then().block();
+        deleteItem(id);
+    }
+
+    @Test
+    void testReconnectAfterMissedChangesClearsItemCaches() {
+        when(itemsCache.advanceGeneration(anyLong())).thenReturn(true);
+
+        databaseClient.sql("""
+                        select pg_terminate_backend(pid) from pg_stat_activity
+                        where pid <> pg_backend_pid() and query like 'select case when is_called%'
+                        """)
+                .then()
+                .block();
+
+        verify(itemCache, timeout(10000)).invalidateAllOnce(startsWith("reconnect:"));
+        verify(pictureCache, timeout(5000)).invalidateAllOnce(startsWith("reconnect:"));
+        verify(itemIdFilter, timeout(5000)).pause();
+        verify(itemIdFilter, timeout(5000)).resume(true);
+    }
+
+    @Test
+    void testReconnectWithoutMissedChangesKeepsCaches() {
+        databaseClient.sql("""
+                        select pg_terminate_backend(pid) from pg_stat_activity
+                        where pid <> pg_backend_pid() and query like 'select case when is_called%'
+                        """)
+                .then()
+                .block();
+
+        verify(itemIdFilter, timeout(10000).times(2)).resume(false); // после advanceGeneration
+        verify(itemsCache, times(2)).advanceGeneration(anyLong());
+        verify(itemCache, never()).invalidateAllOnce(any());
+        verify(itemIdFilter).pause();
+        verify(itemIdFilter, never()).resume(true);
+    }
+
+    private Long insertItem() {
+        return databaseClient.sql("insert into items(title, description, price) values('Товар', 'Описание', 10) returning id")
+                .map(row -> row.get(0, Long.class))
+                .one()
+                .block();
+    }
+
+    private void deleteItem(Long id) {
+        databaseClient.sql("delete from items where id = :id").bind("id", id).then().block();
+    }
+}
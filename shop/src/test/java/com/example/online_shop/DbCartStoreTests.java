@@ -0,0 +1,38 @@
+package com.example.online_shop;
+
+import com.example.online_shop.enumiration.ECartAction;
+import com.example.online_shop.model.dto.ItemDto;
+import com.example.online_shop.service.DbCartStore;
+import com.example.online_shop.service.ItemInCartService;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class DbCartStoreTests {
+    private final ItemInCartService itemInCartService = mock(ItemInCartService.class);
+    private final DbCartStore cartStore = new DbCartStore(itemInCartService);
+    private final ItemDto item = ItemDto.builder().id(7L).title("Товар 7").build();
+
+    @Test
+    void testPlusAndMinusApplyDeltaInOneCall() {
+        when(itemInCartService.applyDelta(anyLong(), anyInt(), anyString())).thenReturn(Mono.just(2));
+
+        assertEquals(2, cartStore.change(item, ECartAction.PLUS, "user").block());
+        assertEquals(2, cartStore.change(item, ECartAction.MINUS, "user").block());
+
+        verify(itemInCartService).applyDelta(7L, 1, "user");
+        verify(itemInCartService).applyDelta(7L, -1, "user");
+        verify(itemInCartService, never()).getByItemIdAndLogin(any(), any());
+    }
+
+    @Test
+    void testDeleteRemovesRow() {
+        when(itemInCartService.removeItemFromCart(7L, "user")).thenReturn(Mono.empty());
+
+        assertEquals(0, cartStore.change(item, ECartAction.DELETE, "user").block());
+        verify(itemInCartService, never()).applyDelta(anyLong(), anyInt(), anyString());
+    }
+}
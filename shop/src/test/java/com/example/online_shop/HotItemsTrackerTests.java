@@ -0,0 +1,66 @@
+package com.example.online_shop;
+
+import com.example.online_shop.cache.HotItemsTracker;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ReactiveZSetOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@SuppressWarnings("unchecked")
+public class HotItemsTrackerTests {
+    private final ReactiveStringRedisTemplate redisTemplate = mock(ReactiveStringRedisTemplate.class);
+    private final ReactiveZSetOperations<String, String> zSetOperations = mock(ReactiveZSetOperations.class);
+    private final AtomicLong flushed = new AtomicLong();
+    private final HotItemsTracker tracker = new HotItemsTracker(redisTemplate, Duration.ofSeconds(10), Duration.ofDays(7), 100);
+
+    @BeforeEach
+    void setUp() {
+        when(redisTemplate.opsForZSet()).thenReturn(zSetOperations);
+        when(zSetOperations.incrementScore(anyString(), anyString(), anyDouble())).thenAnswer(call -> {
+            flushed.addAndGet((long) (double) call.getArgument(2));
+            return Mono.just(1.0);
+        });
+        when(zSetOperations.removeRange(anyString(), any(Range.class))).thenReturn(Mono.just(0L));
+        when(redisTemplate.expire(anyString(), any(Duration.class))).thenReturn(Mono.just(true));
+    }
+
+    @Test
+    void testFlushTrimsToMaxSize() {
+        tracker.record(1L);
+        tracker.record(1L);
+
+        ((Mono<Void>) ReflectionTestUtils.invokeMethod(tracker, "flush")).block();
+
+        verify(zSetOperations).incrementScore("cache:item:hits", "1", 2.0);
+        verify(zSetOperations).removeRange("cache:item:hits", Range.closed(0L, -101L)); // остаются 100 лучших
+    }
+
+    @Test
+    void testConcurrentRecordsAreNotLostByFlush() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 4; i++)
+            executor.submit(() -> {
+                for (int j = 0; j < 50_000; j++)
+                    tracker.record((long) (j % 3));
+            });
+        executor.shutdown();
+        while (!executor.awaitTermination(1, TimeUnit.MILLISECONDS))
+            ((Mono<Void>) ReflectionTestUtils.invokeMethod(tracker, "flush")).block();
+        ((Mono<Void>) ReflectionTestUtils.invokeMethod(tracker, "flush")).block();
+
+        assertEquals(200_000, flushed.get());
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.online_shop;
+
+import com.example.online_shop.service.FileSystemImageStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ImageStoreTests {
+    private static final String SHA256_OF_ABC = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+    @TempDir
+    Path root;
+
+    @Test
+    void testSaveIsContentAddressedAndDeduplicated() throws IOException {
+        FileSystemImageStore store = new FileSystemImageStore(root.toString());
+
+        String first = store.save(chunks("a", "bc")).block();
+        String second = store.save(chunks("abc")).block();
+
+        assertEquals(SHA256_OF_ABC, first);
+        assertEquals(first, second);
+        try (Stream<Path> files = Files.walk(root)) {
+            assertEquals(1, files.filter(Files::isRegularFile).count());
+        }
+        Resource resource = store.get(first).block();
+        assertNotNull(resource);
+        assertArrayEquals("abc".getBytes(StandardCharsets.UTF_8), resource.getContentAsByteArray());
+    }
+
+    @Test
+    void testUnknownOrInvalidHashIsEmpty() {
+        FileSystemImageStore store = new FileSystemImageStore(root.toString());
+
+        assertNull(store.get(SHA256_OF_ABC).block());
+        assertNull(store.get("../../etc/passwd").block());
+    }
+
+    private static Flux<DataBuffer> chunks(String... parts) {
+        return Flux.fromArray(parts)
+                .map(part -> DefaultDataBufferFactory.sharedInstance.wrap(part.getBytes(StandardCharsets.UTF_8)));
+    }
+}
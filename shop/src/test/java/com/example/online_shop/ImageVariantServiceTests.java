@@ -0,0 +1,95 @@
+package com.example.online_shop;
+
+import com.example.online_shop.service.FileSystemImageStore;
+import com.example.online_shop.service.ImageVariantService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ImageVariantServiceTests {
+    @TempDir
+    Path root;
+
+    private FileSystemImageStore store;
+    private ImageVariantService variantService;
+
+    @BeforeEach
+    void setUp() {
+        store = new FileSystemImageStore(root.toString());
+        variantService = new ImageVariantService(store, List.of(800, 300), 50_000_000L, 1, 10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        variantService.destroy();
+    }
+
+    @Test
+    void testCreateVariantsScalesDownKeepingAspectRatio() throws IOException {
+        String hash = save(png(1600, 800));
+
+        variantService.createVariants(hash).block();
+
+        assertEquals(300, read(store.getVariant(hash, 300).block()).getWidth());
+        assertEquals(150, read(store.getVariant(hash, 300).block()).getHeight());
+        assertEquals(800, read(store.getVariant(hash, 800).block()).getWidth());
+    }
+
+    @Test
+    void testSmallImageHasNoLargerVariants() throws IOException {
+        String hash = save(png(500, 500));
+
+        variantService.createVariants(hash).block();
+
+        assertNotNull(store.getVariant(hash, 300).block());
+        assertNull(store.getVariant(hash, 800).block());
+    }
+
+    @Test
+    void testNotAnImageIsIgnored() {
+        String hash = store.save(Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(new byte[]{1, 2, 3}))).block();
+
+        variantService.createVariants(hash).block();
+
+        assertNull(store.getVariant(hash, 300).block());
+    }
+
+    @Test
+    void testResolveWidth() {
+        assertEquals(300, variantService.resolveWidth(100));
+        assertEquals(800, variantService.resolveWidth(301));
+        assertNull(variantService.resolveWidth(1000));
+        assertNull(variantService.resolveWidth(null));
+    }
+
+    private String save(byte[] image) {
+        return store.save(Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(image))).block();
+    }
+
+    private static byte[] png(int width, int height) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB), "png", output);
+        return output.toByteArray();
+    }
+
+    private static BufferedImage read(Resource resource) throws IOException {
+        assertNotNull(resource);
+        try (InputStream input = resource.getInputStream()) {
+            return ImageIO.read(input);
+        }
+    }
+}
@@ -17,6 +17,7 @@ import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
 
 import java.math.BigDecimal;
+import java.util.UUID;
 import java.util.function.Function;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -95,7 +96,7 @@ public class IntegrationTests extends ShopApplicationTests {
         orderDtoFromDb
                 .flatMap(lastOrder -> addItemInCart())
                 .log()
-                .flatMap(cart -> orderService.buy("user"))
+                .flatMap(cart -> orderService.buy("user", UUID.randomUUID().toString()))
                 .log()
                 .zipWith(orderDtoFromDb, (newOrderId, orderDto) -> {
                     assertNotNull(newOrderId);
@@ -113,7 +114,8 @@ public class IntegrationTests extends ShopApplicationTests {
 
     @Test
     void testGetOrders() throws Exception {
-        orderService.getOrders()
+        orderService.getOrders("user", null)
+                .flatMapIterable(OrdersPageDto::getOrders)
                 .doOnNext(order -> {
                     assertNotNull(order);
                     assertNotNull(order.getId());
@@ -126,7 +128,7 @@ public class IntegrationTests extends ShopApplicationTests {
     void testGetOrder() throws Exception {
         Mono<OrderDto> orderDtoFromDb = getLastOrder();
         orderDtoFromDb
-                .map(orderDto -> orderService.getOrderById(orderDto.getId())
+                .map(orderDto -> orderService.getOrderById(orderDto.getId(), "user")
                         .zipWith(orderDtoFromDb, (orderFromDb, order) -> {
 
                             assertNotNull(order);
@@ -0,0 +1,49 @@
+package com.example.online_shop;
+
+import com.example.online_shop.enumiration.ESort;
+import com.example.online_shop.mapper.ItemCursorMapper;
+import com.example.online_shop.model.dto.ItemCursorDto;
+import com.example.online_shop.model.dto.ItemDto;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ItemCursorMapperTests {
+    private final ItemCursorMapper mapper = new ItemCursorMapper();
+    private final ItemDto last = ItemDto.builder()
+            .id(42L)
+            .title("Товар\n№1")
+            .price(BigDecimal.valueOf(10.50))
+            .build();
+
+    @Test
+    void testAlphaCursorRoundTrip() {
+        ItemCursorDto cursor = mapper.toCursorDto(mapper.toCursor(ESort.ALPHA, last), ESort.ALPHA);
+
+        assertNotNull(cursor);
+        assertEquals(42L, cursor.getId());
+        assertEquals(last.getTitle(), cursor.getTitle());
+        assertNull(cursor.getPrice());
+    }
+
+    @Test
+    void testPriceCursorRoundTrip() {
+        ItemCursorDto cursor = mapper.toCursorDto(mapper.toCursor(ESort.PRICE, last), ESort.PRICE);
+
+        assertNotNull(cursor);
+        assertEquals(42L, cursor.getId());
+        assertEquals(0, last.getPrice().compareTo(cursor.getPrice()));
+    }
+
+    @Test
+    void testCursorOfOtherSortIsRejected() {
+        assertNull(mapper.toCursorDto(mapper.toCursor(ESort.NO, last), ESort.PRICE));
+    }
+
+    @Test
+    void testBrokenCursorIsRejected() {
+        assertNull(mapper.toCursorDto("not a cursor", ESort.NO));
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.online_shop;
+
+import com.example.online_shop.cache.ItemIdFilter;
+import com.example.online_shop.repository.ItemRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class ItemIdFilterTests {
+    private final ItemRepository itemRepository = mock(ItemRepository.class);
+    private ItemIdFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        when(itemRepository.estimateCount()).thenReturn(Mono.just(3L));
+        when(itemRepository.findAllIds()).thenReturn(Flux.just(1L, 2L, 5L));
+        filter = new ItemIdFilter(itemRepository, true, 1000, 0.01, true);
+    }
+
+    @Test
+    void testAllIdsPassUntilListenerConnected() {
+        assertTrue(filter.mightExist(3L));
+
+        filter.resume(false).block();
+
+        assertFalse(filter.mightExist(3L));
+        assertTrue(filter.mightExist(5L));
+        verify(itemRepository).findAllIds();
+    }
+
+    @Test
+    void testAllIdsPassWhileListenerDisconnected() {
+        filter.resume(false).block();
+
+        filter.pause();
+        assertTrue(filter.mightExist(3L));
+
+        filter.resume(false).block();
+        assertFalse(filter.mightExist(3L));
+        verify(itemRepository, times(1)).findAllIds(); // изменения не пропущены - фильтр прежний
+    }
+
+    @Test
+    void testFilterWorksWithoutNotifications() {
+        ItemIdFilter standalone = new ItemIdFilter(itemRepository, true, 1000, 0.01, false);
+
+        standalone.afterPropertiesSet();
+
+        assertFalse(standalone.mightExist(3L)); // построен и включён без слушателя
+        assertTrue(standalone.mightExist(5L));
+        standalone.destroy();
+    }
+
+    @Test
+    void testListenerTurnsFilterOnWhenNotificationsEnabled() {
+        filter.afterPropertiesSet();
+
+        assertTrue(filter.mightExist(3L));
+        verify(itemRepository, never()).findAllIds();
+    }
+
+    @Test
+    void testMissedChangesRebuildFilter() {
+        filter.resume(false).block();
+        filter.pause();
+        when(itemRepository.findAllIds()).thenReturn(Flux.just(1L, 2L, 3L, 5L));
+
+        filter.resume(true).block();
+
+        assertTrue(filter.mightExist(3L));
+        assertFalse(filter.mightExist(4L));
+    }
+
+    @Test
+    void testIdsAboveKnownPass() {
+        filter.resume(false).block();
+
+        assertTrue(filter.mightExist(6L)); // NOTIFY о новом товаре может ещё не дойти
+        filter.add(7L);
+        assertFalse(filter.mightExist(6L));
+    }
+}
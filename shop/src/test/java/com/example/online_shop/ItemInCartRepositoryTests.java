@@ -0,0 +1,126 @@
+package com.example.online_shop;
+
+import com.example.online_shop.repository.ItemInCartRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.AutoConfigurationPackage;
+import org.springframework.boot.test.autoconfigure.data.r2dbc.DataR2dbcTest;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ItemInCartRepository.APPLY_DELTA на настоящей БД: одновременные изменения одной строки корзины.
+ */
+@DataR2dbcTest
+@ActiveProfiles("test")
+@ContextConfiguration(classes = ItemInCartRepositoryTests.Configuration.class)
+public class ItemInCartRepositoryTests {
+    private static final String LOGIN = "cart-delta-test";
+
+    @Autowired
+    private ItemInCartRepository itemInCartRepository;
+    @Autowired
+    private DatabaseClient databaseClient;
+    private Long itemId;
+
+    // без ShopApplication и его Redis-репозиториев: Redis тесту не нужен
+    @AutoConfigurationPackage(basePackageClasses = ShopApplication.class)
+    static class Configuration {
+    }
+
+    @BeforeEach
+    void setUp() {
+        databaseClient.sql("insert into users(login, password, roles) values(:login, '-', 'ROLE_USER') on conflict do nothing")
+                .bind("login", LOGIN)
+                .then()
+                .block();
+        itemId = databaseClient.sql("insert into items(title, description, price) values('Товар', 'Описание', 10) returning id")
+                .map(row -> row.get(0, Long.class))
+                .one()
+                .block();
+    }
+
+    @AfterEach
+    void tearDown() {
+        databaseClient.sql("delete from items_in_cart where login = :login").bind("login", LOGIN).then().block();
+        databaseClient.sql("delete from cart_summaries where login = :login").bind("login", LOGIN).then().block();
+        databaseClient.sql("delete from users where login = :login").bind("login", LOGIN).then().block();
+        databaseClient.sql("delete from items where id = :id").bind("id", itemId).then().block();
+    }
+
+    @Test
+    void testConcurrentPlusAndMinusAreNotLost() {
+        itemInCartRepository.applyDelta(LOGIN, itemId, 100).block();
+
+        applyConcurrently(List.of(1, -1), 100); // 50 нажатий "+" и 50 "-" вперемешку
+        applyConcurrently(List.of(-1), 30);
+
+        assertEquals(70, count());
+        assertEquals(Map.of("positions", 1, "quantity", 70), summary());
+    }
+
+    @Test
+    void testConcurrentMinusBelowZeroDeletesRow() {
+        itemInCartRepository.applyDelta(LOGIN, itemId, 5).block();
+
+        List<Integer> counts = applyConcurrently(List.of(-1), 20);
+
+        assertNull(count());
+        assertEquals(List.of(0, 1, 2, 3, 4), counts.stream().sorted().toList()); // остальные - товара уже нет
+        assertEquals(Map.of("positions", 0, "quantity", 0), summary());
+    }
+
+    @Test
+    void testConcurrentLastMinusesDeleteRow() {
+        for (int round = 0; round < 20; round++) {
+            itemInCartRepository.applyDelta(LOGIN, itemId, 2).block();
+
+            applyConcurrently(List.of(-1), 2);
+
+            assertNull(count(), "round " + round);
+        }
+    }
+
+    @Test
+    void testMinusOfMissingItemChangesNothing() {
+        assertNull(itemInCartRepository.applyDelta(LOGIN, itemId, -1).block());
+        assertNull(count());
+    }
+
+    private List<Integer> applyConcurrently(List<Integer> deltas, int times) {
+        return Flux.range(0, times)
+                .parallel(times)
+                .runOn(Schedulers.parallel())
+                .flatMap(i -> itemInCartRepository.applyDelta(LOGIN, itemId, deltas.get(i % deltas.size())))
+                .sequential()
+                .collectList()
+                .block();
+    }
+
+    private Integer count() {
+        return databaseClient.sql("select count from items_in_cart where login = :login and item_id = :id")
+                .bind("login", LOGIN)
+                .bind("id", itemId)
+                .map(row -> row.get(0, Integer.class))
+                .one()
+                .block();
+    }
+
+    private Map<String, Integer> summary() {
+        return databaseClient.sql("select positions, quantity from cart_summaries where login = :login")
+                .bind("login", LOGIN)
+                .map(row -> Map.of("positions", row.get(0, Integer.class), "quantity", row.get(1, Integer.class)))
+                .one()
+                .block();
+    }
+}
@@ -1,11 +1,18 @@
 package com.example.online_shop;
 
+import com.example.online_shop.cache.HotItemsTracker;
+import com.example.online_shop.cache.ItemIdFilter;
+import com.example.online_shop.mapper.ItemCursorMapper;
 import com.example.online_shop.mapper.ItemMapper;
+import com.example.online_shop.model.dto.ImageDto;
 import com.example.online_shop.model.dto.ItemCreateDto;
 import com.example.online_shop.model.dto.ItemDto;
+import com.example.online_shop.model.dto.ItemsWithPagingDto;
 import com.example.online_shop.model.entity.Item;
 import com.example.online_shop.repository.ItemRepository;
 import com.example.online_shop.service.CartService;
+import com.example.online_shop.service.ImageStore;
+import com.example.online_shop.service.ImageVariantService;
 import com.example.online_shop.service.ItemInCacheService;
 import com.example.online_shop.service.ItemInCartService;
 import com.example.online_shop.service.ItemService;
@@ -15,22 +22,33 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
 import org.springframework.http.codec.multipart.FilePart;
-import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.ActiveProfiles;
-import org.springframework.web.multipart.MultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import java.io.File;
 import java.io.IOException;
 import java.math.BigDecimal;
-import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.LongStream;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -47,37 +65,58 @@ public class ModelItemTests {
     private ItemInCartService itemInCartService;
     @Mock
     private ItemInCacheService cacheService;
+    @Mock
+    private CartService cartService;
+    @Mock
+    private ItemIdFilter itemIdFilter;
+    @Mock
+    private HotItemsTracker hotItemsTracker;
+    @Mock
+    private ImageStore imageStore;
+    @Mock
+    private ImageVariantService imageVariantService;
 
 
     @InjectMocks
     private ItemService itemService;
 
     @Test
+    @SuppressWarnings("unchecked")
     void testAddItem() {
+        ReflectionTestUtils.setField(itemService, "maxImageSize", DataSize.ofMegabytes(50));
+        ReflectionTestUtils.setField(itemService, "maxConcurrentUploads", 4);
 
         // Создаём DTO с фиктивной картинкой
-        MultipartFile picture = new MockMultipartFile("shop.png", FAKE_IMAGE);
+        FilePart picture = mock(FilePart.class);
+        when(picture.content()).thenReturn(Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(FAKE_IMAGE)));
 
         ItemCreateDto itemCreateDto = ItemCreateDto.builder().title("Товар 1").description("Товар для mock проверки")
-                .price(BigDecimal.valueOf(10.50)).image((FilePart) picture).build();
+                .price(BigDecimal.valueOf(10.50)).image(picture).build();
 
-        Item item = Item.builder().title("Товар 1").description("Товар для mock проверки")
+        Item item = Item.builder().id(1L).title("Товар 1").description("Товар для mock проверки")
                 .price(BigDecimal.valueOf(10.50)).image(FAKE_IMAGE).build();
 
-        ItemDto itemDto = ItemDto.builder().title("Товар 1").description("Товар для mock проверки")
+        ItemDto itemDto = ItemDto.builder().id(1L).title("Товар 1").description("Товар для mock проверки")
                 .price(BigDecimal.valueOf(10.50)).imagePath(IMAGE_PATH + "1L").build();
 
+        when(imageStore.save(any())).thenAnswer(call -> ((Flux<DataBuffer>) call.getArgument(0))
+                .doOnNext(DataBufferUtils::release)
+                .then(Mono.just("hash")));
+        when(imageVariantService.createVariants("hash")).thenReturn(Mono.empty());
         when(itemMapper.toItem(any(ItemCreateDto.class))).thenReturn(item);
-        when(itemRepository.save(any(Item.class))).thenReturn(Mono.just(item));
+        when(itemRepository.save(any(Item.class))).thenAnswer(call -> Mono.just(call.getArgument(0)));
         when(itemMapper.toDto(any(Item.class))).thenReturn(itemDto);
 
-        itemService.saveItem(Mono.just(itemCreateDto))
-                .doOnNext(itemRes -> assertThat(itemRes).isEqualTo(itemDto))
-                .subscribe();
+        ItemDto saved = itemService.saveItem(Mono.just(itemCreateDto)).block();
+
+        assertThat(saved).isEqualTo(itemDto);
+        assertThat(item.getImage()).isNull(); // картинка в хранилище, а не в таблице
+        assertThat(item.getImageHash()).isEqualTo("hash");
+        verify(itemIdFilter).add(1L);
     }
 
     @Test
-    void testGetImage() {
+    void testGetImage() throws IOException {
 
         Item item = Item.builder()
                 .id(1L)
@@ -85,29 +124,20 @@ public class ModelItemTests {
                 .description("Товар для mock проверки")
                 .price(BigDecimal.valueOf(10))
                 .build();
-        try {
-            MultipartFile picture = new MockMultipartFile("shop.png",
-                    Files.readAllBytes(new File("shop.png").toPath()));
-            item.setImage(picture.getBytes());
-        } catch (IOException ignore) {}
+        item.setImage(new ClassPathResource("shop.png").getContentAsByteArray());
 
+        when(cacheService.getItemDtoById(1L)).thenReturn(Mono.just(ItemDto.builder().id(1L).build()));
         when(cacheService.geyImage(any(Long.class))).thenReturn(Mono.just(item.getImage()));
-        itemService.getImage(1L)
-                .doOnNext(image -> assertThat(image).isEqualTo(item.getImage()))
-                .subscribe();
+
+        ImageDto image = itemService.getImage(1L).block();
+
+        assertThat(((ByteArrayResource) image.getContent()).getByteArray()).isEqualTo(item.getImage());
         verify(cacheService).geyImage(1L);
     }
 
     @Test
     void testGetItemDtoById() {
 
-        ItemDto itemDto = ItemDto.builder()
-                .title("Товар 1")
-                .description("Товар для mock проверки")
-                .price(BigDecimal.valueOf(10))
-                .imagePath(IMAGE_PATH + "1L")
-                .build();
-
         ItemDto item = ItemDto.builder()
                 .id(1L)
                 .title("Товар 1")
@@ -117,11 +147,97 @@ public class ModelItemTests {
                 .build();
 
         when(cacheService.getItemDtoById(any(Long.class))).thenReturn(Mono.just(item));
-        when(itemMapper.toDto(any(Item.class))).thenReturn(itemDto);
-        when(itemInCartService.getCountByItemIdAndLogin(any(Long.class), anyString())).thenReturn(Mono.just(0));
+        when(cartService.getItemCountInCart(any(Long.class), anyString())).thenReturn(Mono.just(2));
 
-        itemService.getItemDtoById(1L, "user")
-                .doOnNext(itemRes -> assertThat(item).isEqualTo(itemRes))
-                .subscribe();
+        ItemDto itemRes = itemService.getItemDtoById(1L, "user").block();
+
+        assertThat(itemRes).isEqualTo(item.toBuilder().count(2).build());
+        verify(hotItemsTracker).record(1L);
+    }
+
+    @Test
+    void testGetItemsLooksUpCartOncePerPage() {
+        ReflectionTestUtils.setField(itemService, "itemsRowCount", 5);
+        List<ItemDto> page = LongStream.rangeClosed(1, 50)
+                .mapToObj(id -> ItemDto.builder().id(id).title("Товар " + id).build())
+                .toList();
+
+        when(cacheService.getItems(anyString(), anyString(), any(Integer.class), any(Integer.class)))
+                .thenReturn(Mono.just(page));
+        when(cartService.getItemCountsInCart("user")).thenReturn(Mono.just(Map.of(2L, 3, 50L, 1)));
+        when(cacheService.getItemsCountEstimate()).thenReturn(Mono.just(50L));
+
+        List<List<ItemDto>> rows = itemService.getItems("", "NO", 1, 50, "user").block();
+
+        assertThat(rows.size()).isEqualTo(10);
+        assertThat(rows.get(0).get(1).getCount()).isEqualTo(3);
+        assertThat(rows.get(9).get(4).getCount()).isEqualTo(1);
+        assertThat(rows.get(0).get(0).getCount()).isEqualTo(0);
+        verify(cartService, times(1)).getItemCountsInCart("user");
+        verify(itemInCartService, never()).getCountByItemIdAndLogin(any(Long.class), anyString());
+    }
+
+    @Test
+    void testGetPageDetectsNextPageFromExtraRow() {
+        ReflectionTestUtils.setField(itemService, "itemsRowCount", 5);
+        ReflectionTestUtils.setField(itemService, "itemCursorMapper", new ItemCursorMapper());
+        List<ItemDto> window = LongStream.rangeClosed(1, 11)
+                .mapToObj(id -> ItemDto.builder().id(id).title("Товар " + id).build())
+                .toList();
+
+        when(cacheService.getItems(anyString(), anyString(), any(Integer.class), any(Integer.class)))
+                .thenReturn(Mono.just(new ArrayList<>(window)));
+        when(cartService.getItemCountsInCart("user")).thenReturn(Mono.just(Map.of()));
+        when(cacheService.getItemsCountEstimate()).thenReturn(Mono.empty());
+
+        ItemsWithPagingDto page = itemService.getPage("", "NO", null, null, 1, 10, "user").block();
+
+        assertThat(page.getItems().size()).isEqualTo(2);
+        assertThat(page.getItems().get(1).getLast().getId()).isEqualTo(10L);
+        assertThat(page.getPaging().isHasNext()).isEqualTo(true);
+        assertThat(page.getPaging().isHasPrevious()).isEqualTo(false);
+        assertThat(page.getPaging().getNextCursor()).isNotNull();
+        assertThat(page.getPaging().getTotalEstimate()).isNull();
+        verify(cacheService, times(1)).getItems("", "NO", 1, 10);
+    }
+
+    @Test
+    void testGetPageBeforeCursorDetectsPreviousPageFromExtraRow() {
+        ReflectionTestUtils.setField(itemService, "itemsRowCount", 5);
+        ReflectionTestUtils.setField(itemService, "itemCursorMapper", new ItemCursorMapper());
+        List<ItemDto> window = LongStream.rangeClosed(10, 20)
+                .mapToObj(id -> ItemDto.builder().id(id).title("Товар " + id).build())
+                .toList();
+
+        when(cacheService.getItemsBefore("NO", "21", 10)).thenReturn(Mono.just(new ArrayList<>(window)));
+        when(cartService.getItemCountsInCart("user")).thenReturn(Mono.just(Map.of()));
+        when(cacheService.getItemsCountEstimate()).thenReturn(Mono.empty());
+
+        ItemsWithPagingDto page = itemService.getPage("", "NO", null, "21", 2, 10, "user").block();
+
+        assertThat(page.getItems().getFirst().getFirst().getId()).isEqualTo(11L);
+        assertThat(page.getItems().get(1).getLast().getId()).isEqualTo(20L);
+        assertThat(page.getPaging().getPageNumber()).isEqualTo(2);
+        assertThat(page.getPaging().isHasPrevious()).isEqualTo(true);
+        assertThat(page.getPaging().isHasNext()).isEqualTo(true);
+        assertThat(page.getPaging().getPreviousCursor()).isNotNull();
+        assertThat(page.getPaging().getNextCursor()).isNotNull();
+        verify(cacheService, never()).getItems(anyString(), anyString(), any(Integer.class), any(Integer.class));
+    }
+
+    @Test
+    void testGetPageClampsPageSize() {
+        ReflectionTestUtils.setField(itemService, "itemsRowCount", 5);
+        when(cacheService.getItems(anyString(), anyString(), any(Integer.class), any(Integer.class)))
+                .thenReturn(Mono.just(List.of()));
+        when(cartService.getItemCountsInCart("user")).thenReturn(Mono.just(Map.of()));
+        when(cacheService.getItemsCountEstimate()).thenReturn(Mono.empty());
+
+        ItemsWithPagingDto page = itemService.getPage("", "NO", null, null, 1, 7, "user").block();
+        itemService.getPage("", "NO", null, null, 1, 1000, "user").block();
+
+        assertThat(page.getPaging().getPageSize()).isEqualTo(10);
+        verify(cacheService, times(1)).getItems("", "NO", 1, 10);
+        verify(cacheService, times(1)).getItems("", "NO", 1, 100);
     }
 }
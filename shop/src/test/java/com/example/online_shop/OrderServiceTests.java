@@ -0,0 +1,218 @@
+package com.example.online_shop;
+
+import com.example.online_shop.enumiration.EOrderStatus;
+import com.example.online_shop.exception.PaymentPendingException;
+import com.example.online_shop.mapper.ItemInOrderMapper;
+import com.example.online_shop.mapper.OrderMapper;
+import com.example.online_shop.model.dto.CartDto;
+import com.example.online_shop.model.dto.ItemDto;
+import com.example.online_shop.model.dto.OrdersPageDto;
+import com.example.online_shop.model.entity.ItemInOrder;
+import com.example.online_shop.model.entity.Order;
+import com.example.online_shop.repository.OrderRepository;
+import com.example.online_shop.service.CartService;
+import com.example.online_shop.service.ItemInOrderService;
+import com.example.online_shop.service.OrderService;
+import com.example.online_shop.service.PaymentsService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.modelmapper.ModelMapper;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class OrderServiceTests {
+    private final OrderRepository orderRepository = mock(OrderRepository.class);
+    private final ItemInOrderService itemInOrderService = mock(ItemInOrderService.class);
+    private final CartService cartService = mock(CartService.class);
+    private final PaymentsService paymentsService = mock(PaymentsService.class);
+    private final TransactionalOperator transactionalOperator = mock(TransactionalOperator.class);
+    private final OrderService orderService = new OrderService(orderRepository, new OrderMapper(new ModelMapper()),
+            cartService, itemInOrderService, new ItemInOrderMapper(new ModelMapper()), paymentsService, transactionalOperator);
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(orderService, "ordersPageSize", 2);
+        when(itemInOrderService.getItemsByOrderIds(anyCollection())).thenReturn(Flux.just(
+                ItemInOrder.builder().orderId(9L).itemId(1L).title("Товар 1").count(2).price(BigDecimal.TEN).build(),
+                ItemInOrder.builder().orderId(7L).itemId(2L).title("Товар 2").count(1).price(BigDecimal.ONE).build()));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testBuyCreatesPendingOrderThenMarksItPaid() {
+        stubCheckout(true);
+
+        assertEquals(5L, orderService.buy("user", "key-1").block());
+
+        ArgumentCaptor<Order> pending = ArgumentCaptor.forClass(Order.class);
+        verify(orderRepository).save(pending.capture());
+        assertEquals(EOrderStatus.PENDING, pending.getValue().getStatus());
+        assertEquals("key-1", pending.getValue().getIdempotencyKey());
+        ArgumentCaptor<List<ItemInOrder>> lines = ArgumentCaptor.forClass(List.class);
+        verify(itemInOrderService).saveAll(eq(5L), lines.capture());
+        assertEquals(2, lines.getValue().size());
+        assertTrue(lines.getValue().stream().allMatch(line -> line.getId() == null && line.getOrderId() == 5L));
+        verify(itemInOrderService, never()).save(any());
+        verify(orderRepository).completePending(5L, "PAID");
+        ArgumentCaptor<Collection<ItemDto>> ordered = ArgumentCaptor.forClass(Collection.class);
+        verify(cartService).removeOrdered(eq("user"), ordered.capture());
+        assertEquals(Map.of(1L, 2, 2L, 1), ordered.getValue().stream()
+                .collect(Collectors.toMap(ItemDto::getId, ItemDto::getCount))); // только строки снимка корзины
+        verify(cartService, never()).clearCart(anyString());
+        verify(transactionalOperator, times(2)).transactional(any(Mono.class)); // оплата - между транзакциями
+    }
+
+    @Test
+    void testBuyMarksOrderFailedWhenPaymentRejected() {
+        stubCheckout(false);
+
+        assertThrows(RuntimeException.class, () -> orderService.buy("user", "key-1").block());
+
+        verify(orderRepository).completePending(5L, "FAILED");
+        verify(cartService, never()).removeOrdered(anyString(), any());
+    }
+
+    @Test
+    void testBuyLeavesOrderPendingWhenPaymentOutcomeUnknown() {
+        stubCheckout(true);
+        when(paymentsService.createPayment(any())).thenReturn(Mono.error(new IllegalStateException("timeout")));
+
+        assertThrows(PaymentPendingException.class, () -> orderService.buy("user", "key-1").block());
+
+        verify(orderRepository, never()).completePending(anyLong(), anyString());
+        verify(cartService, never()).removeOrdered(anyString(), any());
+    }
+
+    @Test
+    void testRepeatedBuyOfPendingOrderDoesNotPayAgain() {
+        when(orderRepository.findByLoginAndIdempotencyKey("user", "key-1"))
+                .thenReturn(Mono.just(Order.builder().id(5L).login("user").status(EOrderStatus.PENDING).build()));
+
+        assertThrows(PaymentPendingException.class, () -> orderService.buy("user", "key-1").block());
+
+        verify(paymentsService, never()).createPayment(any());
+    }
+
+    @Test
+    void testRepeatedBuyReturnsPaidOrderWithoutPayment() {
+        when(orderRepository.findByLoginAndIdempotencyKey("user", "key-1"))
+                .thenReturn(Mono.just(order(5L, "21")));
+
+        assertEquals(5L, orderService.buy("user", "key-1").block());
+
+        verify(paymentsService, never()).createPayment(any());
+        verify(orderRepository, never()).save(any());
+    }
+
+    @Test
+    void testBuyIsRejectedWhileAnotherOrderIsPending() {
+        stubCheckout(true);
+        when(orderRepository.save(any(Order.class))).thenReturn(Mono.error(new DuplicateKeyException("orders_login_pending_uk")));
+
+        assertThrows(PaymentPendingException.class, () -> orderService.buy("user", "key-2").block());
+
+        verify(paymentsService, never()).createPayment(any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testSettlePaidRemovesOrderedLinesFromCart() {
+        when(transactionalOperator.transactional(any(Mono.class))).thenAnswer(call -> call.getArgument(0));
+        when(orderRepository.findById(5L))
+                .thenReturn(Mono.just(Order.builder().id(5L).login("user").status(EOrderStatus.PENDING).build()));
+        when(orderRepository.completePending(5L, "PAID")).thenReturn(Mono.just(1));
+        when(itemInOrderService.getItemInOrderByOrderId(5L)).thenReturn(Flux.just(
+                ItemInOrder.builder().orderId(5L).itemId(1L).count(2).price(BigDecimal.TEN).build()));
+        when(cartService.removeOrdered(eq("user"), any())).thenReturn(Mono.empty());
+
+        assertTrue(orderService.settle(5L, EOrderStatus.PAID).block());
+
+        ArgumentCaptor<Collection<ItemDto>> ordered = ArgumentCaptor.forClass(Collection.class);
+        verify(cartService).removeOrdered(eq("user"), ordered.capture());
+        assertEquals(1L, ordered.getValue().iterator().next().getId());
+        assertEquals(2, ordered.getValue().iterator().next().getCount());
+    }
+
+    @Test
+    void testSettleOfCompletedOrderChangesNothing() {
+        when(orderRepository.findById(5L)).thenReturn(Mono.just(order(5L, "21")));
+
+        assertFalse(orderService.settle(5L, EOrderStatus.FAILED).block());
+
+        verify(orderRepository, never()).completePending(anyLong(), anyString());
+        verify(cartService, never()).removeOrdered(anyString(), any());
+    }
+
+    @Test
+    void testGetOrdersReturnsPageWithCursor() {
+        when(orderRepository.findPageByLogin("user", 3)).thenReturn(Flux.just(order(9L, "20"), order(7L, "1"), order(4L, "5")));
+
+        OrdersPageDto page = orderService.getOrders("user", null).block();
+
+        assertEquals(List.of(9L, 7L), page.getOrders().stream().map(order -> order.getId()).toList());
+        assertTrue(page.isHasNext());
+        assertEquals(7L, page.getNextCursor());
+        assertEquals(new BigDecimal("20"), page.getOrders().getFirst().getTotalSum()); // из orders.total_sum
+        assertEquals(1L, page.getOrders().getFirst().getItems().getFirst().getId());
+        verify(itemInOrderService).getItemsByOrderIds(List.of(9L, 7L)); // строки только заказов страницы
+    }
+
+    @Test
+    void testGetOrdersLastPageHasNoCursor() {
+        when(orderRepository.findPageByLoginBefore("user", 7L, 3)).thenReturn(Flux.just(order(4L, "5")));
+
+        OrdersPageDto page = orderService.getOrders("user", 7L).block();
+
+        assertEquals(1, page.getOrders().size());
+        assertTrue(page.getOrders().getFirst().getItems().isEmpty());
+        assertFalse(page.isHasNext());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    void testGetOrderByIdOfAnotherUserIsEmpty() {
+        when(orderRepository.findByIdAndLoginAndStatus(9L, "other", EOrderStatus.PAID)).thenReturn(Mono.empty());
+
+        assertNull(orderService.getOrderById(9L, "other").block());
+        verify(itemInOrderService, never()).getItemInOrderByOrderId(anyLong());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void stubCheckout(boolean paid) {
+        when(transactionalOperator.transactional(any(Mono.class))).thenAnswer(call -> call.getArgument(0));
+        when(orderRepository.findByLoginAndIdempotencyKey(anyString(), anyString())).thenReturn(Mono.empty());
+        when(cartService.getCart("user")).thenReturn(Mono.just(CartDto.builder()
+                .items(Map.of(1L, ItemDto.builder().id(1L).title("Товар 1").count(2).price(BigDecimal.TEN).build(),
+                        2L, ItemDto.builder().id(2L).title("Товар 2").count(1).price(BigDecimal.ONE).build()))
+                .total(BigDecimal.valueOf(21))
+                .empty(false)
+                .build()));
+        when(paymentsService.createPayment(any())).thenReturn(Mono.just(paid));
+        when(orderRepository.save(any(Order.class))).thenAnswer(call -> {
+            Order order = call.getArgument(0);
+            order.setId(5L);
+            return Mono.just(order);
+        });
+        when(itemInOrderService.saveAll(anyLong(), anyList())).thenReturn(Flux.just(10L, 11L));
+        when(orderRepository.completePending(anyLong(), anyString())).thenReturn(Mono.just(1));
+        when(cartService.removeOrdered(eq("user"), any())).thenReturn(Mono.empty());
+    }
+
+    private static Order order(Long id, String totalSum) {
+        return Order.builder().id(id).login("user").status(EOrderStatus.PAID).totalSum(new BigDecimal(totalSum)).build();
+    }
+}
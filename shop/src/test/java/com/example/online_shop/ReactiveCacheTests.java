@@ -0,0 +1,254 @@
+package com.example.online_shop;
+
+import com.example.online_shop.cache.CacheInvalidationBus;
+import com.example.online_shop.cache.FrequencySketch;
+import com.example.online_shop.cache.JacksonCacheCodec;
+import com.example.online_shop.cache.ReactiveCache;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.ReactiveValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@SuppressWarnings("unchecked")
+public class ReactiveCacheTests {
+    private final ReactiveRedisTemplate<String, byte[]> redisTemplate = mock(ReactiveRedisTemplate.class);
+    private final ReactiveValueOperations<String, byte[]> valueOperations = mock(ReactiveValueOperations.class);
+    private final CacheInvalidationBus invalidationBus = mock(CacheInvalidationBus.class);
+    private final Map<String, byte[]> redis = new ConcurrentHashMap<>();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @BeforeEach
+    void setUp() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.get(any())).thenAnswer(call -> Mono.justOrEmpty(redis.get((String) call.getArgument(0))));
+        when(valueOperations.set(any(), any(), any(Duration.class))).thenAnswer(call -> {
+            redis.put(call.getArgument(0), call.getArgument(1));
+            return Mono.just(true);
+        });
+        when(redisTemplate.delete(any(String[].class))).thenAnswer(call -> {
+            redis.remove((String) call.getArgument(0));
+            return Mono.just(1L);
+        });
+    }
+
+    @Test
+    void testConcurrentMissesLoadOnce() {
+        ReactiveCache<String> cache = cache(Duration.ofMinutes(1), 1.0, false);
+        AtomicInteger loads = new AtomicInteger();
+
+        List<String> values = Flux.range(0, 20)
+                .flatMap(i -> cache.get("1", () -> Mono.fromCallable(() -> "Товар " + loads.incrementAndGet())
+                        .delayElement(Duration.ofMillis(100))))
+                .collectList()
+                .block();
+
+        assertEquals(1, loads.get());
+        assertEquals(20, values.size());
+        assertTrue(values.stream().allMatch("Товар 1"::equals));
+    }
+
+    @Test
+    void testValueIsReadBackFromRedis() {
+        ReactiveCache<String> cache = cache(Duration.ofMinutes(1), 0.0, false);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get("1", () -> Mono.just("Товар " + loads.incrementAndGet())).block();
+        String cached = cache.get("1", () -> Mono.just("Товар " + loads.incrementAndGet())).block();
+
+        assertEquals("Товар 1", cached);
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void testEntryNearExpiryIsRefreshedEarly() {
+        // огромный beta - обновление при первом же чтении
+        ReactiveCache<String> cache = cache(Duration.ofMinutes(1), 1_000_000_000.0, true);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get("1", () -> Mono.fromCallable(() -> { // синхронно: к следующему чтению загрузка завершена
+            Thread.sleep(5);
+            return "v" + loads.incrementAndGet();
+        })).block();
+        String stale = cache.get("1", () -> Mono.just("v" + loads.incrementAndGet())).block();
+
+        assertEquals("v1", stale); // отдаётся текущее значение, обновление идёт в фоне
+        assertEquals(2, loads.get());
+        assertEquals("v2", cache.get("1", Mono::empty).block());
+    }
+
+    @Test
+    void testEvictRemovesEntryAndNotifiesOtherNodes() {
+        ReactiveCache<String> cache = cache(Duration.ofMinutes(1), 0.0, true);
+        cache.get("1", () -> Mono.just("v1")).block();
+
+        cache.evict("1").block();
+
+        assertEquals("v2", cache.get("1", () -> Mono.just("v2")).block());
+        verify(invalidationBus).publish("items", "1");
+    }
+
+    @Test
+    void testEvictTouchesL1OnlyAfterRedisDelete() {
+        ReactiveCache<String> cache = cache(Duration.ofMinutes(1), 0.0, true);
+        cache.get("1", () -> Mono.just("v1")).block();
+        redis.clear(); // значение осталось только в L1
+        Sinks.One<Long> redisDelete = Sinks.one();
+        when(redisTemplate.delete(any(String[].class))).thenReturn(redisDelete.asMono());
+
+        Mono<Void> evict = cache.evict("1"); // собран, но не подписан
+        assertEquals("v1", cache.get("1", () -> Mono.just("v2")).block());
+
+        evict.subscribe();
+        assertEquals("v1", cache.get("1", () -> Mono.just("v2")).block()); // удаление в Redis ещё идёт
+        redisDelete.tryEmitValue(1L);
+        assertEquals("v2", cache.get("1", () -> Mono.just("v2")).block());
+    }
+
+    @Test
+    void testNewGenerationHidesPreviousEntries() {
+        ReactiveCache<String> cache = cache(Duration.ofMinutes(1), 0.0, true);
+        assertFalse(cache.advanceGeneration(5));
+        cache.get("1", () -> Mono.just("v1")).block();
+
+        assertFalse(cache.advanceGeneration(4));
+        assertEquals("v1", cache.get("1", () -> Mono.just("v2")).block());
+        assertTrue(cache.advanceGeneration(6));
+
+        assertEquals("v2", cache.get("1", () -> Mono.just("v2")).block());
+        assertEquals(2, redis.size());
+        verify(redisTemplate, never()).scan(any());
+    }
+
+    @Test
+    void testInvalidateOnceClearsL1EvenIfAnotherNodeClaimedEvent() {
+        ReactiveCache<String> cache = cache(Duration.ofMinutes(1), 0.0, true);
+        cache.get("1", () -> Mono.just("v1")).block();
+        redis.clear(); // ключ в Redis удалил другой узел
+        when(redisTemplate.execute(any(), anyList(), anyList())).thenReturn(Flux.just(0L));
+
+        cache.invalidateOnce(Map.of("7", "1")).block();
+
+        assertEquals("v2", cache.get("1", () -> Mono.just("v2")).block());
+        verify(redisTemplate).execute(any(), eq(List.of("cache:items:event:7", "cache:items:json::1")), anyList());
+    }
+
+    @Test
+    void testEmptyResultIsNotCached() {
+        ReactiveCache<String> cache = cache(Duration.ofMinutes(1), 0.0, true);
+
+        assertNull(cache.get("1", Mono::empty).block());
+        assertEquals("v1", cache.get("1", () -> Mono.just("v1")).block());
+    }
+
+    @Test
+    void testRareKeyIsNotAdmitted() {
+        ReactiveCache<String> cache = new ReactiveCache<>("items", redisTemplate,
+                new JacksonCacheCodec<>(objectMapper, objectMapper.constructType(String.class)), Duration.ofMinutes(1), 0.0,
+                null, invalidationBus, new SimpleMeterRegistry(), new ReactiveCache.Limits(1, 0, null));
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get("поиск", () -> Mono.just("v" + loads.incrementAndGet())).block();
+        assertTrue(redis.isEmpty());
+
+        cache.get("поиск", () -> Mono.just("v" + loads.incrementAndGet())).block();
+        assertEquals(1, redis.size());
+        assertEquals("v2", cache.get("поиск", () -> Mono.just("v" + loads.incrementAndGet())).block());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void testPreloadBypassesAdmission() {
+        ReactiveCache<String> cache = new ReactiveCache<>("items", redisTemplate,
+                new JacksonCacheCodec<>(objectMapper, objectMapper.constructType(String.class)), Duration.ofMinutes(1), 0.0,
+                null, invalidationBus, new SimpleMeterRegistry(), new ReactiveCache.Limits(5, 0, null));
+
+        cache.preload("страница", () -> Mono.just("v1")).block();
+
+        assertEquals(1, redis.size());
+        assertEquals("v1", cache.get("страница", () -> Mono.just("v2")).block());
+    }
+
+    @Test
+    void testTierCountersGiveL1HitRatio() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ReactiveCache<String> cache = new ReactiveCache<>("items", redisTemplate,
+                new JacksonCacheCodec<>(objectMapper, objectMapper.constructType(String.class)), Duration.ofMinutes(1), 0.0,
+                Caffeine.newBuilder().<String, ReactiveCache.Entry<String>>build(), invalidationBus, meterRegistry);
+
+        cache.get("1", () -> Mono.just("v1")).block();
+        cache.get("1", () -> Mono.just("v1")).block();
+
+        assertEquals(1, meterRegistry.get("cache.tier.gets").tags("tier", "l1", "result", "miss").counter().count());
+        assertEquals(1, meterRegistry.get("cache.tier.gets").tags("tier", "l1", "result", "hit").counter().count());
+        assertEquals(1, meterRegistry.get("cache.tier.gets").tags("tier", "l2", "result", "miss").counter().count());
+    }
+
+    @Test
+    void testBoundedCachePassesByteLimitToScript() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList())).thenReturn(Flux.just(0L));
+        ReactiveCache<String> cache = new ReactiveCache<>("items", redisTemplate,
+                new JacksonCacheCodec<>(objectMapper, objectMapper.constructType(String.class)), Duration.ofMinutes(1), 0.0,
+                null, invalidationBus, new SimpleMeterRegistry(), new ReactiveCache.Limits(-1, 64 * 1024, null));
+
+        cache.get("страница", () -> Mono.just("v1")).block();
+
+        verify(redisTemplate).execute(any(RedisScript.class),
+                eq(List.of("cache:items:json:index", "cache:items:json:index:sizes", "cache:items:json::страница")),
+                argThat((List<byte[]> args) -> "65536".equals(new String(args.get(3)))));
+        verify(valueOperations, never()).set(any(), any(), any(Duration.class));
+    }
+
+    @Test
+    void testMissingValueIsCachedForNegativeTtl() {
+        ReactiveCache<String> cache = new ReactiveCache<>("item", redisTemplate,
+                new JacksonCacheCodec<>(objectMapper, objectMapper.constructType(String.class)), Duration.ofMinutes(1), 0.0,
+                null, invalidationBus, new SimpleMeterRegistry(), new ReactiveCache.Limits(-1, 0, Duration.ofSeconds(30)));
+        AtomicInteger loads = new AtomicInteger();
+
+        assertNull(cache.get("404", () -> Mono.fromRunnable(loads::incrementAndGet)).block());
+        assertNull(cache.get("404", () -> Mono.fromRunnable(loads::incrementAndGet)).block());
+
+        assertEquals(1, loads.get());
+        verify(valueOperations).set(any(), any(), eq(Duration.ofSeconds(30)));
+    }
+
+    @Test
+    void testFrequencySketchCounts() {
+        FrequencySketch sketch = new FrequencySketch(1024);
+        for (int i = 0; i < 5; i++)
+            sketch.increment("hot");
+        sketch.increment("cold");
+        for (int i = 0; i < 20; i++)
+            sketch.increment("saturated");
+
+        assertEquals(5, sketch.frequency("hot"));
+        assertEquals(1, sketch.frequency("cold"));
+        assertEquals(0, sketch.frequency("unknown"));
+        assertEquals(15, sketch.frequency("saturated"));
+    }
+
+    private ReactiveCache<String> cache(Duration ttl, double beta, boolean local) {
+        return new ReactiveCache<>("items", redisTemplate,
+                new JacksonCacheCodec<>(objectMapper, objectMapper.constructType(String.class)), ttl, beta,
+                local ? Caffeine.newBuilder().<String, ReactiveCache.Entry<String>>build() : null,
+                invalidationBus, new SimpleMeterRegistry());
+    }
+}
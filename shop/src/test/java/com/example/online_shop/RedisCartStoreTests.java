@@ -0,0 +1,194 @@
+package com.example.online_shop;
+
+import com.example.online_shop.enumiration.ECartAction;
+import com.example.online_shop.model.dto.CartSummaryDto;
+import com.example.online_shop.model.dto.ItemDto;
+import com.example.online_shop.model.entity.ItemInCart;
+import com.example.online_shop.repository.ItemInCartRepository;
+import com.example.online_shop.service.ItemInCacheService;
+import com.example.online_shop.service.RedisCartStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.ReactiveHashOperations;
+import org.springframework.data.redis.core.ReactiveSetOperations;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@SuppressWarnings("unchecked")
+public class RedisCartStoreTests {
+    private final ReactiveStringRedisTemplate redisTemplate = mock(ReactiveStringRedisTemplate.class);
+    private final ReactiveHashOperations<String, Object, Object> hashOperations = mock(ReactiveHashOperations.class);
+    private final ReactiveSetOperations<String, String> setOperations = mock(ReactiveSetOperations.class);
+    private final ItemInCartRepository itemInCartRepository = mock(ItemInCartRepository.class);
+    private final ItemInCacheService cacheService = mock(ItemInCacheService.class);
+    private final TransactionalOperator transactionalOperator = mock(TransactionalOperator.class);
+    private RedisCartStore cartStore;
+
+    @BeforeEach
+    void setUp() {
+        when(redisTemplate.opsForHash()).thenReturn(hashOperations);
+        when(redisTemplate.opsForSet()).thenReturn(setOperations);
+        when(hashOperations.hasKey(anyString(), eq("loaded"))).thenReturn(Mono.just(true));
+        when(hashOperations.entries(anyString())).thenReturn(Flux.empty());
+        when(transactionalOperator.transactional(any(Mono.class))).thenAnswer(call -> call.getArgument(0));
+        when(cacheService.withCatalogFields(anyList())).thenAnswer(call -> Mono.just(((List<ItemInCart>) call.getArgument(0))
+                .stream()
+                .map(row -> row.toBuilder().title("Товар " + row.getItemId()).price(BigDecimal.TEN).build())
+                .toList()));
+        cartStore = new RedisCartStore(redisTemplate, itemInCartRepository, cacheService, transactionalOperator,
+                Duration.ofDays(30), Duration.ofSeconds(1), 100, Duration.ofMinutes(1));
+    }
+
+    @Test
+    void testChangeSendsDeltaToScript() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList())).thenReturn(Flux.just(2L));
+
+        Integer count = cartStore.change(ItemDto.builder().id(5L).price(new BigDecimal("12.5")).build(),
+                ECartAction.MINUS, "User").block();
+
+        assertEquals(2, count);
+        verify(redisTemplate).execute(any(RedisScript.class), eq(List.of("cart:user", "cart:dirty", "cart:user:summary")),
+                eq(List.of("5", "-1", String.valueOf(Duration.ofDays(30).toSeconds()), "User", "1250")));
+    }
+
+    @Test
+    void testChangeReloadsExpiredCart() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList()))
+                .thenReturn(Flux.just(-1L), Flux.just(1L));
+
+        assertEquals(1, cartStore.change(ItemDto.builder().id(5L).build(), ECartAction.PLUS, "user").block());
+        verify(redisTemplate, times(2)).execute(any(RedisScript.class), anyList(), anyList());
+    }
+
+    @Test
+    void testApplyAllSendsAllDeltasInOneScript() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList())).thenReturn(Flux.just(1L));
+
+        cartStore.applyAll(List.of(ItemDto.builder().id(5L).count(2).price(BigDecimal.ONE).build(),
+                ItemDto.builder().id(7L).count(-1).price(BigDecimal.TEN).build()), "User").block();
+
+        verify(redisTemplate).execute(any(RedisScript.class), eq(List.of("cart:user", "cart:dirty", "cart:user:summary")),
+                eq(List.of(String.valueOf(Duration.ofDays(30).toSeconds()), "User", "5", "2", "100", "7", "-1", "1000")));
+    }
+
+    @Test
+    void testGetSummaryReadsSummaryHash() {
+        when(hashOperations.multiGet("cart:user:summary", List.of("positions", "quantity", "total")))
+                .thenReturn(Mono.just(List.of("2", "5", "12350")));
+
+        CartSummaryDto summary = cartStore.getSummary("User").block();
+
+        assertEquals(2, summary.getPositions());
+        assertEquals(5, summary.getQuantity());
+        assertEquals(new BigDecimal("123.50"), summary.getTotal());
+        verify(hashOperations, never()).entries(anyString());
+    }
+
+    @Test
+    void testGetByLoginBuildsRowsFromCatalogWithoutWrites() {
+        when(hashOperations.entries("cart:user")).thenReturn(Flux.just(Map.entry("loaded", "1"), Map.entry("7", "3")));
+        when(hashOperations.entries("cart:user:summary")).thenReturn(Flux.just(Map.entry("p:7", "1000")));
+
+        List<ItemInCart> rows = cartStore.getByLogin("user").block();
+
+        assertEquals(1, rows.size());
+        assertEquals(7L, rows.getFirst().getItemId());
+        assertEquals(3, rows.getFirst().getCount());
+        assertEquals("Товар 7", rows.getFirst().getTitle());
+        assertEquals("user", rows.getFirst().getLogin());
+        verify(redisTemplate, never()).execute(any(RedisScript.class), anyList(), anyList()); // цены в сводке актуальны
+    }
+
+    @Test
+    void testGetCountsReadsHashWithoutCatalog() {
+        when(hashOperations.entries("cart:user")).thenReturn(Flux.just(Map.entry("loaded", "1"), Map.entry("7", "3")));
+
+        assertEquals(Map.of(7L, 3), cartStore.getCounts("User").block());
+        verify(cacheService, never()).withCatalogFields(anyList());
+        verify(redisTemplate, never()).execute(any(RedisScript.class), anyList(), anyList());
+    }
+
+    @Test
+    void testGetByLoginSyncsSummaryWithShownRows() {
+        when(hashOperations.entries("cart:user"))
+                .thenReturn(Flux.just(Map.entry("loaded", "1"), Map.entry("7", "3"), Map.entry("9", "1")));
+        when(hashOperations.entries("cart:user:summary")).thenReturn(Flux.just(Map.entry("p:7", "1000"), Map.entry("p:9", "100")));
+        when(cacheService.withCatalogFields(anyList())).thenAnswer(call -> Mono.just(((List<ItemInCart>) call.getArgument(0))
+                .stream()
+                .filter(row -> row.getItemId() != 9L) // удалён из каталога
+                .map(row -> row.toBuilder().price(new BigDecimal("12.5")).build())
+                .toList()));
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList())).thenReturn(Flux.just(1L));
+
+        List<ItemInCart> rows = cartStore.getByLogin("user").block();
+
+        assertEquals(List.of(7L), rows.stream().map(ItemInCart::getItemId).toList());
+        verify(redisTemplate).execute(any(RedisScript.class), eq(List.of("cart:user", "cart:dirty", "cart:user:summary")),
+                argThat((List<String> args) -> args.get(0).equals("user")
+                        && Map.of("7", "1250", "9", "del").equals(Map.of(args.get(1), args.get(2), args.get(3), args.get(4)))));
+    }
+
+    @Test
+    void testFlushReplacesChangedCarts() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList()))
+                .thenReturn(Flux.just(List.of("user", "gone")), Flux.just(1L));
+        when(hashOperations.entries("cart:user")).thenReturn(Flux.just(Map.entry("loaded", "1"), Map.entry("7", "3")));
+        when(hashOperations.entries("cart:gone")).thenReturn(Flux.empty());
+        when(itemInCartRepository.deleteByLoginIgnoreCase(anyString())).thenReturn(Mono.empty());
+        when(itemInCartRepository.saveAll(anyIterable())).thenAnswer(call -> Flux.fromIterable(call.getArgument(0)));
+
+        ReflectionTestUtils.<Mono<Void>>invokeMethod(cartStore, "flush").block();
+
+        verify(itemInCartRepository).deleteByLoginIgnoreCase("user");
+        verify(itemInCartRepository, never()).deleteByLoginIgnoreCase("gone");
+        verify(itemInCartRepository).saveAll(argThat((List<ItemInCart> rows) ->
+                rows.size() == 1 && rows.getFirst().getItemId() == 7L && rows.getFirst().getCount() == 3));
+        verify(redisTemplate).execute(any(RedisScript.class), eq(List.of("cart:dirty", "cart:flushing")),
+                argThat((List<String> args) -> args.get(1).equals("0") && args.subList(2, args.size()).equals(List.of("user", "gone"))));
+    }
+
+    @Test
+    void testFlushReleasesCartsOnlyAfterCommit() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList()))
+                .thenReturn(Flux.just(List.of("user")), Flux.just(1L));
+        when(hashOperations.entries("cart:user")).thenReturn(Flux.just(Map.entry("loaded", "1"), Map.entry("7", "3")));
+        when(itemInCartRepository.deleteByLoginIgnoreCase(anyString())).thenReturn(Mono.empty());
+        when(itemInCartRepository.saveAll(anyIterable())).thenAnswer(call -> Flux.fromIterable(call.getArgument(0)));
+        when(transactionalOperator.transactional(any(Mono.class))).thenAnswer(call -> {
+            verify(redisTemplate, times(1)).execute(any(RedisScript.class), anyList(), anyList()); // только захват
+            return call.getArgument(0);
+        });
+
+        ReflectionTestUtils.<Mono<Void>>invokeMethod(cartStore, "flush").block();
+
+        verify(redisTemplate, times(2)).execute(any(RedisScript.class), anyList(), anyList());
+        verify(setOperations, never()).pop(anyString(), anyLong());
+    }
+
+    @Test
+    void testFailedFlushMarksCartsDirtyAgain() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList()))
+                .thenReturn(Flux.just(List.of("user")), Flux.just(1L));
+        when(hashOperations.entries("cart:user")).thenReturn(Flux.just(Map.entry("loaded", "1")));
+        when(itemInCartRepository.deleteByLoginIgnoreCase(anyString())).thenReturn(Mono.error(new RuntimeException("db down")));
+        when(itemInCartRepository.saveAll(anyIterable())).thenReturn(Flux.empty());
+
+        ReflectionTestUtils.<Mono<Void>>invokeMethod(cartStore, "flush").block();
+
+        verify(redisTemplate).execute(any(RedisScript.class), eq(List.of("cart:dirty", "cart:flushing")),
+                argThat((List<String> args) -> args.get(1).equals("1") && args.get(2).equals("user")));
+    }
+}
@@ -59,9 +59,9 @@ class ShopApplicationTests {
                         	insert into users(login, password, roles) values('admin', '$2a$10$1uqPC2fATNy7VynsRKsPQeoEl0gs09HrbukCiqoXcaHSFDf9iDLxG', 'ROLE_ADMIN');
                         	insert into items(title, description, price) values('Товар№1', 'Тестовый товар номер один', 10);
                         	insert into items(title, description, price) values('Товар№2', 'Тестовый товар номер два', 20) returning id into item_id;
-                        	insert into orders(total_sum) values(2200) returning id into order_id;
+                        	insert into orders(total_sum, login) values(2200, 'user') returning id into order_id;
                         	insert into items_in_order(title, description, price, count, item_id, order_id) values('Товар№1', 'Тестовый товар номер один', 10, 2, item_id, order_id);
-                        	insert into items_in_cart(title, description, price, count, item_id, login, image_path) values('Товар№1', 'Тестовый товар номер один', 10, 2, item_id, 'user', 'http://localhost:8084/items/image/'||item_id);
+                        	insert into items_in_cart(count, item_id, login) values(2, item_id, 'user');
                         END $$;
                         """).fetch()
                 .rowsUpdated()
@@ -145,11 +145,11 @@ class ShopApplicationTests {
                         BEGIN
                         	select max(id) from items into item_id;
                         	merge into items_in_cart as c
-                        		using (select 'Товар№1' title, 'Тестовый товар номер один' description, 10 price, 1 count, item_id item_id, '' image_path, 'user' login) as i
+                        		using (select 1 count, item_id item_id, 'user' login) as i
                         		on c.login = i.login and c.item_id = i.item_id
                         		when not matched then
-                        			insert(title, description, price, count, item_id, image_path, login)
-                        			values(i.title, i.description, i.price, i.count, i.item_id, i.image_path, i.login)
+                        			insert(count, item_id, login)
+                        			values(i.count, i.item_id, i.login)
                         		when matched then
                         			update set count=i.count+1;
                         END $$;
@@ -165,12 +165,14 @@ class ShopApplicationTests {
     protected Flux<ItemInCartDto> getItemsInCart() {
         System.out.println("Start addItemInCart");
         return databaseClient.sql("""
-                        	select id, title, description, price, count, item_id, login, image_path from items_in_cart where login = 'user';
+                        	select c.id, i.title, i.description, i.price, c.count, c.item_id, c.login
+                        	from items_in_cart c join items i on i.id = c.item_id
+                        	where c.login = 'user';
                         """).map((row, rowNum) -> ItemInCartDto.builder()
                         .id(row.get("id", Long.class))
                         .title(row.get("title", String.class))
                         .description(row.get("description", String.class))
-                        .imagePath(row.get("image_path", String.class))
+                        .imagePath(imagePath + row.get("item_id", Long.class))
                         .count(row.get("count", Integer.class) == null ? 0 : row.get("count", Integer.class))
                         .price(row.get("price", BigDecimal.class))
                         .itemId(row.get("item_id", Long.class))